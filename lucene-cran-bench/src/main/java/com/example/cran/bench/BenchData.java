@@ -0,0 +1,42 @@
+package com.example.cran.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Locates the Cranfield files (-Dcran.dir) and manages scratch index directories. */
+final class BenchData {
+    private BenchData() {}
+
+    static File dataDir() {
+        String dir = System.getProperty("cran.dir");
+        if (dir != null) return new File(dir);
+        // default: the collection shipped with lucene-cran, from the repo root or this module
+        for (String candidate : new String[] {"lucene-cran/src/main/resources/cran", "../lucene-cran/src/main/resources/cran"}) {
+            File f = new File(candidate);
+            if (new File(f, "cran.all.1400").exists()) return f;
+        }
+        throw new IllegalStateException("Cranfield data not found; pass -Dcran.dir=<dir with cran.all.1400 and cran.qry>");
+    }
+
+    static String queriesFile() {
+        return new File(dataDir(), "cran.qry").getPath();
+    }
+
+    static Path tempIndexDir() throws IOException {
+        return Files.createTempDirectory("cran-bench-index");
+    }
+
+    static void delete(Path dir) {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.cran.bench;
+
+import com.example.cran.CranfieldParser;
+import com.example.cran.IndexStorage;
+import com.example.cran.Indexer;
+import com.example.cran.RunSink;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+
+/**
+ * A Cranfield index built once per trial (with term vectors, like Main) and opened for
+ * searching from the given storage; RAM indexes straight into memory, like Main does.
+ */
+@State(Scope.Benchmark)
+public class CranIndex {
+    /** Queries in cran.qry; search benchmarks report time per query. */
+    public static final int QUERIES = 225;
+
+    @Param({"FS", "MMAP", "RAM"})
+    public IndexStorage storage;
+
+    public Path path;
+    public Directory dir;
+    public DirectoryReader reader;
+    public String queriesFile;
+
+    @Setup(Level.Trial)
+    public void build() throws Exception {
+        path = BenchData.tempIndexDir();
+        if (storage == IndexStorage.RAM) {
+            dir = new ByteBuffersDirectory();
+            new Indexer(dir, true, new Indexer.Options()).index(new CranfieldParser(BenchData.dataDir()).parseDocs());
+        } else {
+            new Indexer(path, true).index(new CranfieldParser(BenchData.dataDir()).parseDocs());
+            dir = storage.open(path);
+        }
+        reader = DirectoryReader.open(dir);
+        queriesFile = BenchData.queriesFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        reader.close();
+        dir.close();
+        BenchData.delete(path);
+    }
+
+    /** A sink that keeps every ranked list alive just long enough for JMH. */
+    public static RunSink consume(Blackhole bh) {
+        return (qid, hits) -> bh.consume(hits);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.cran.bench;
+
+import com.example.cran.RerankTitleBoostSearcher;
+import com.example.cran.RocchioSearcher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-query latency of Rocchio expansion and title reranking. The feedback cache is
+ * switched off in the forked JVM so every invocation pays for its first pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dcran.feedbackCacheSize=0")
+@State(Scope.Benchmark)
+public class FeedbackBenchmark {
+    @Benchmark
+    @OperationsPerInvocation(CranIndex.QUERIES)
+    public void rocchio(CranIndex index, Blackhole bh) throws Exception {
+        new RocchioSearcher(index.path, 1.0f, 0.75f, 10, 15).search(index.reader, index.queriesFile, CranIndex.consume(bh));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CranIndex.QUERIES)
+    public void rerank(CranIndex index, Blackhole bh) throws Exception {
+        new RerankTitleBoostSearcher(index.path, 1.0f, 100).search(index.reader, index.queriesFile, CranIndex.consume(bh));
+    }
+}
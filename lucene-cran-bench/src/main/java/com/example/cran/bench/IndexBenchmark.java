@@ -0,0 +1,60 @@
+package com.example.cran.bench;
+
+import com.example.cran.CranfieldParser;
+import com.example.cran.IndexStorage;
+import com.example.cran.Indexer;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Indexer.index over pre-parsed documents, so parsing isn't part of the measurement; RAM never touches the disk. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+    @Param({"true", "false"})
+    public boolean termVectors;
+
+    @Param({"1"})
+    public int threads;
+
+    @Param({"FS", "RAM"})
+    public IndexStorage storage;
+
+    private List<CranfieldParser.CranDoc> docs;
+    private Path indexDir;
+
+    @Setup(Level.Trial)
+    public void parse() throws Exception {
+        docs = new CranfieldParser(BenchData.dataDir()).parseDocs();
+    }
+
+    @Setup(Level.Invocation)
+    public void newDir() throws Exception {
+        indexDir = BenchData.tempIndexDir();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDir() {
+        BenchData.delete(indexDir);
+    }
+
+    @Benchmark
+    public void index() throws Exception {
+        Indexer.Options options = new Indexer.Options();
+        options.threads = threads;
+        if (storage == IndexStorage.RAM) {
+            try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+                new Indexer(dir, termVectors, options).index(docs);
+            }
+        } else {
+            new Indexer(indexDir, termVectors, options).index(docs);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.cran.bench;
+
+import com.example.cran.CranfieldParser;
+import com.example.cran.Indexer;
+import com.example.cran.NrtIndex;
+import com.example.cran.QuerySource;
+import com.example.cran.TopKSearch;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency while documents stream into a near-real-time index: one thread keeps
+ * replacing Cranfield documents while another runs cran.qry against the live searcher.
+ * Reopen (refresh) latencies are printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class NrtBenchmark {
+    /** Upper bound on how long a write stays invisible to searches. */
+    @Param({"50", "1000"})
+    public int maxStaleMs;
+
+    private ByteBuffersDirectory dir;
+    private NrtIndex nrt;
+    private List<CranfieldParser.CranDoc> docs;
+    private List<Query> queries;
+    private int nextDoc;
+    private int nextQuery;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        docs = new CranfieldParser(BenchData.dataDir()).parseDocs();
+        queries = new ArrayList<>(QuerySource.load(BenchData.queriesFile()).parsed("english", "content").values());
+        dir = new ByteBuffersDirectory();
+        Indexer indexer = new Indexer(dir, true, new Indexer.Options());
+        indexer.index(docs);
+        nrt = indexer.openNrt(maxStaleMs / 1000.0, 0.01);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        System.out.println();
+        System.out.print(nrt.stats().toJson("nrt_maxStale" + maxStaleMs + "ms"));
+        nrt.close();
+        dir.close();
+    }
+
+    /** Replaces one document, i.e. a delete plus an add, never waiting for visibility. */
+    @Benchmark
+    @Group("nrt")
+    public long ingest() throws Exception {
+        return nrt.update(docs.get(nextDoc++ % docs.size()));
+    }
+
+    @Benchmark
+    @Group("nrt")
+    public TopDocs search() throws Exception {
+        Query q = queries.get(nextQuery++ % queries.size());
+        IndexSearcher searcher = nrt.manager().acquire();
+        try {
+            return TopKSearch.shared().search(searcher, q, 1000);
+        } finally {
+            nrt.manager().release(searcher);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.cran.bench;
+
+import com.example.cran.CranfieldParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/** Parsing cran.all.1400: the materializing parseDocs() against the streaming reader. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    private CranfieldParser parser;
+
+    @Setup
+    public void setup() {
+        parser = new CranfieldParser(BenchData.dataDir());
+    }
+
+    @Benchmark
+    public List<CranfieldParser.CranDoc> parseDocs() throws Exception {
+        return parser.parseDocs();
+    }
+
+    @Benchmark
+    public void streamDocs(Blackhole bh) throws Exception {
+        try (Stream<CranfieldParser.CranDoc> docs = parser.streamDocs()) {
+            docs.forEach(bh::consume);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.cran.bench;
+
+import com.example.cran.CranfieldParser;
+import com.example.cran.Indexer;
+import com.example.cran.QuerySource;
+import com.example.cran.RunFile;
+import com.example.cran.TopKSearch;
+import com.example.cran.TrecEvaluator;
+import com.example.cran.TrecRunWriter;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of storing and re-evaluating a full run (225 queries x 1000 hits of the english
+ * baseline) as TREC text versus a binary {@link RunFile}. The GC profiler's allocation
+ * numbers show the difference as much as the times do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RunFileBenchmark {
+    private ByteBuffersDirectory dir;
+    private DirectoryReader reader;
+    private TrecEvaluator evaluator;
+    private final Map<Integer, ScoreDoc[]> run = new TreeMap<>();
+    private Path tmp;
+    private Path trecFile;
+    private Path binaryFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        CranfieldParser parser = new CranfieldParser(BenchData.dataDir());
+        dir = new ByteBuffersDirectory();
+        new Indexer(dir, false, new Indexer.Options()).index(parser.parseDocs());
+        reader = DirectoryReader.open(dir);
+        evaluator = new TrecEvaluator(parser);
+
+        IndexSearcher searcher = new IndexSearcher(reader);
+        for (Map.Entry<Integer, Query> e : QuerySource.load(BenchData.queriesFile()).parsed("english", "content").entrySet()) {
+            run.put(e.getKey(), TopKSearch.shared().search(searcher, e.getValue(), 1000).scoreDocs);
+        }
+
+        tmp = BenchData.tempIndexDir();
+        trecFile = tmp.resolve("run.txt");
+        binaryFile = tmp.resolve("run.run");
+        writeTrec();
+        writeBinary();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        reader.close();
+        dir.close();
+        BenchData.delete(tmp);
+    }
+
+    @Benchmark
+    public Path writeTrec() throws Exception {
+        try (TrecRunWriter writer = new TrecRunWriter(trecFile.toString(), reader, "run_english")) {
+            for (Map.Entry<Integer, ScoreDoc[]> e : run.entrySet()) writer.write(e.getKey(), e.getValue());
+        }
+        return trecFile;
+    }
+
+    @Benchmark
+    public Path writeBinary() throws Exception {
+        try (RunFile.Writer writer = new RunFile.Writer(binaryFile, reader, "run_english")) {
+            for (Map.Entry<Integer, ScoreDoc[]> e : run.entrySet()) writer.write(e.getKey(), e.getValue());
+        }
+        return binaryFile;
+    }
+
+    @Benchmark
+    public TrecEvaluator.Metrics evaluateTrec() throws Exception {
+        return evaluator.evaluateRunFile(trecFile.toString());
+    }
+
+    @Benchmark
+    public TrecEvaluator.Metrics evaluateBinary() throws Exception {
+        return evaluator.evaluateRunFile(binaryFile.toString());
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.cran.bench;
+
+import com.example.cran.BM25TunedSearcher;
+import com.example.cran.MultiBM25Searcher;
+import com.example.cran.RunSink;
+import com.example.cran.Searcher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** Per-query latency of the first-pass searchers; each invocation runs the full query set. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    private static final float[] GRID_K1 = {0.8f, 0.8f, 0.8f, 1.2f, 1.2f, 1.2f, 1.5f, 1.5f, 1.5f, 2.0f, 2.0f, 2.0f};
+    private static final float[] GRID_B = {0.4f, 0.6f, 0.75f, 0.4f, 0.6f, 0.75f, 0.4f, 0.6f, 0.75f, 0.4f, 0.6f, 0.75f};
+
+    @Benchmark
+    @OperationsPerInvocation(CranIndex.QUERIES)
+    public void english(CranIndex index, Blackhole bh) throws Exception {
+        new Searcher(index.path).search(index.reader, index.queriesFile, CranIndex.consume(bh), "english");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CranIndex.QUERIES)
+    public void bm25Tuned(CranIndex index, Blackhole bh) throws Exception {
+        new BM25TunedSearcher(index.path, 1.2f, 0.75f).search(index.reader, index.queriesFile, CranIndex.consume(bh));
+    }
+
+    /** All twelve grid settings of Main at once; compare with twelve times bm25Tuned. */
+    @Benchmark
+    @OperationsPerInvocation(CranIndex.QUERIES)
+    public void bm25Grid(CranIndex index, Blackhole bh) throws Exception {
+        RunSink[] sinks = new RunSink[GRID_K1.length];
+        for (int i = 0; i < sinks.length; i++) sinks[i] = CranIndex.consume(bh);
+        new MultiBM25Searcher(GRID_K1, GRID_B).search(index.reader, index.queriesFile, sinks);
+    }
+}
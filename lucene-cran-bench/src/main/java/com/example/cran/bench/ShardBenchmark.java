@@ -0,0 +1,74 @@
+package com.example.cran.bench;
+
+import com.example.cran.CranfieldParser;
+import com.example.cran.Indexer;
+import com.example.cran.QuerySource;
+import com.example.cran.ShardedIndex;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Per-query latency of fan-out search as the collection and the number of shards grow.
+ * The collection is cran.all.1400 repeated {@code scale} times (copies get their own
+ * docnos), partitioned by docno hash into in-memory shards; one shard is the unsharded case.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    /** Copies of the collection. */
+    @Param({"1", "8"})
+    public int scale;
+
+    private ShardedIndex index;
+    private Collection<Query> queries;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        List<CranfieldParser.CranDoc> docs = new ArrayList<>();
+        for (CranfieldParser.CranDoc d : new CranfieldParser(BenchData.dataDir()).parseDocs()) {
+            for (int copy = 0; copy < scale; copy++) {
+                CranfieldParser.CranDoc c = new CranfieldParser.CranDoc();
+                c.docno = copy == 0 ? d.docno : d.docno + "_" + copy;
+                c.title = d.title;
+                c.author = d.author;
+                c.biblio = d.biblio;
+                c.body = d.body;
+                docs.add(c);
+            }
+        }
+
+        Directory[] dirs = IntStream.range(0, shards).mapToObj(i -> new ByteBuffersDirectory()).toArray(Directory[]::new);
+        List<Indexer> indexers = new ArrayList<>();
+        for (Directory dir : dirs) indexers.add(new Indexer(dir, false, new Indexer.Options()));
+        ShardedIndex.index(docs.iterator(), indexers, ShardedIndex.Partition.HASH);
+        index = new ShardedIndex(dirs);
+        queries = QuerySource.load(BenchData.queriesFile()).parsed("english", "content").values();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        index.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CranIndex.QUERIES)
+    public void search(Blackhole bh) throws Exception {
+        for (Query q : queries) bh.consume(index.search(q, 1000));
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.cran.bench;
+
+import com.example.cran.SynonymAnalyzer;
+import com.example.cran.SynonymFst;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synonym FSTs over a generated thesaurus: compiling it from Solr text, loading the
+ * serialized artifact, and analysis throughput with the FST on-heap vs memory-mapped.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SynonymBenchmark {
+    /** Tokens per lookup invocation. */
+    private static final int TOKENS = 10_000;
+    private static final String FILE = "synonyms.fst";
+
+    @Param({"1000", "200000"})
+    public int rules;
+
+    private String thesaurus;
+    private String text;
+    private Path dir;
+    private MMapDirectory mmap;
+    private IndexInput mapped;
+    private SynonymMap onHeap;
+    private SynonymMap offHeap;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        // "termN => termN, synN", with a two-word rule every tenth entry
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rules; i++) {
+            String term = "term" + Integer.toString(i, 36);
+            if (i % 10 == 0) term += " flow";
+            sb.append(term).append(" => ").append(term).append(", syn").append(Integer.toString(i, 36)).append('\n');
+        }
+        thesaurus = sb.toString();
+
+        // half the tokens hit a rule, the rest are misses
+        Random random = new Random(42);
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < TOKENS; i++) {
+            String w = random.nextBoolean() ? "term" + Integer.toString(random.nextInt(rules), 36) : "other" + random.nextInt(1000);
+            words.append(w).append(' ');
+        }
+        text = words.toString();
+
+        onHeap = SynonymFst.parse(new StringReader(thesaurus), false);
+        dir = BenchData.tempIndexDir();
+        mmap = new MMapDirectory(dir);
+        SynonymFst.write(onHeap, mmap, FILE);
+        mapped = mmap.openInput(FILE, IOContext.READ);
+        offHeap = SynonymFst.load(mapped);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        mapped.close();
+        mmap.close();
+        BenchData.delete(dir);
+    }
+
+    /** Parsing the thesaurus and building the FST, as every class load used to. */
+    @Benchmark
+    public SynonymMap build() throws Exception {
+        return SynonymFst.parse(new StringReader(thesaurus), false);
+    }
+
+    /** Opening the compiled artifact instead. */
+    @Benchmark
+    public int load() throws Exception {
+        try (IndexInput in = mmap.openInput(FILE, IOContext.READ)) {
+            return SynonymFst.load(in).words.size();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(TOKENS)
+    public void lookupOnHeap(Blackhole bh) throws Exception {
+        analyze(onHeap, bh);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(TOKENS)
+    public void lookupOffHeap(Blackhole bh) throws Exception {
+        analyze(offHeap, bh);
+    }
+
+    private void analyze(SynonymMap map, Blackhole bh) throws Exception {
+        try (SynonymAnalyzer analyzer = new SynonymAnalyzer(map);
+             TokenStream ts = analyzer.tokenStream("content", text)) {
+            ts.reset();
+            int tokens = 0;
+            while (ts.incrementToken()) tokens++;
+            ts.end();
+            bh.consume(tokens);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.cran;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+
+/** Analyzers by the names used in configs and run tags. */
+public final class Analyzers {
+    private Analyzers() {}
+
+    /** "english" | "standard" | "whitespace" | "ngram" | "synonym"; anything else gets StandardAnalyzer. */
+    public static Analyzer forName(String name) {
+        switch (name.toLowerCase()) {
+            case "english": return new EnglishAnalyzer();
+            case "whitespace": return new WhitespaceAnalyzer();
+            case "ngram": return new CustomAnalyzer();
+            case "synonym": return new SynonymAnalyzer();
+            default: return new StandardAnalyzer();
+        }
+    }
+
+    /** {@code name}, plus a fingerprint of any resources the analyzer loads, so indexes notice when they change. */
+    public static String version(String name) {
+        String n = name.toLowerCase();
+        return n.equals("synonym") ? n + "@" + SynonymFst.shared().fingerprint().substring(0, 16) : n;
+    }
+
+    /** Same as {@link #forName(String)}, except that token graphs are flattened for writing an index. */
+    public static Analyzer forIndexing(String name) {
+        return name.equalsIgnoreCase("synonym") ? SynonymAnalyzer.forIndexing() : forName(name);
+    }
+}
@@ -1,109 +1,136 @@
 package com.example.cran;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.en.EnglishAnalyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.sandbox.search.CombinedFieldQuery;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.similarities.Similarity;
 
 import java.io.*;
 import java.nio.file.Path;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Searches title and content together, weighting title matches.
+ * BOOLEAN ORs a boosted query per field, so every term is scored once per field;
+ * COMBINED scores every term once with BM25F over both fields (CombinedFieldQuery),
+ * which needs weights of at least 1.
+ */
 public class BoostedFieldSearcher {
+    public enum Mode { BOOLEAN, COMBINED }
+
     private final Path indexPath;
     private final float titleBoost;
     private final float bodyBoost;
+    private final Mode mode;
 
     public BoostedFieldSearcher(Path indexPath, float titleBoost, float bodyBoost) {
+        this(indexPath, titleBoost, bodyBoost, Mode.BOOLEAN);
+    }
+
+    public BoostedFieldSearcher(Path indexPath, float titleBoost, float bodyBoost, Mode mode) {
+        if (mode == Mode.COMBINED && (titleBoost < 1 || bodyBoost < 1)) {
+            throw new IllegalArgumentException("BM25F field weights must be >= 1, got title=" + titleBoost + " body=" + bodyBoost);
+        }
         this.indexPath = indexPath;
         this.titleBoost = titleBoost;
         this.bodyBoost = bodyBoost;
+        this.mode = mode;
     }
 
     public void search(String queriesFile, String outputFile) throws Exception {
-        Analyzer analyzer = new EnglishAnalyzer();
+        try (DirectoryReader reader = DirectoryReader.open(IndexStorage.fromSystemProperties().open(indexPath))) {
+            search(reader, queriesFile, outputFile);
+        }
+    }
 
-        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexPath));
-             BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile))) {
+    /** Same as {@link #search(String, String)} but against an already open, shared reader. */
+    public void search(IndexReader reader, String queriesFile, String outputFile) throws Exception {
+        String tag = (mode == Mode.COMBINED ? "run_bm25f_title" : "run_boost_title") + titleBoost + "_body" + bodyBoost;
+        try (TrecRunWriter out = new TrecRunWriter(outputFile, reader, tag)) {
+            search(reader, queriesFile, out);
+        }
+    }
 
-            IndexSearcher searcher = new IndexSearcher(reader);
-            searcher.setSimilarity(new BM25Similarity(1.5f, 0.6f));  // ✅ tuned BM25
+    /** Runs the queries and hands each ranked list to {@code sink}, in qid order. */
+    public void search(IndexReader reader, String queriesFile, RunSink sink) throws Exception {
+        QuerySource source = QuerySource.load(queriesFile);
+        StageTimer timer = sink.timer();
+        Map<Integer, Query> queries = mode == Mode.COMBINED ? combinedQueries(source) : booleanQueries(source);
+        if (mode == Mode.COMBINED) source.recordParse(timer, "english", "content");
+        else source.recordParse(timer, "english", "title", "content");
 
-            QueryParser titleParser = new QueryParser("title", analyzer);
-            QueryParser bodyParser = new QueryParser("body", analyzer);
+        try (QueryRunner runner = QueryRunner.fromSystemProperties()) {
 
-            Map<Integer, String> queries = parseCranQueries(queriesFile);
+            IndexSearcher searcher = runner.newSearcher(reader);
+            configure(searcher);
 
-            for (Map.Entry<Integer, String> e : queries.entrySet()) {
-                int qid = e.getKey();
-                String qtext = e.getValue();
-                if (qtext == null || qtext.isEmpty()) continue;
+            runner.run(source.texts(), (qid, qtext) -> {
+                Query q = queries.get(qid);
+                return timer.time(StageTimer.Stage.SEARCH, () -> TopKSearch.shared().search(searcher, q, 1000, timer).scoreDocs);
+            }, sink);
+        }
+    }
 
-                // Parse query for both fields
-                Query titleQ = titleParser.parse(QueryParser.escape(qtext));
-                Query bodyQ = bodyParser.parse(QueryParser.escape(qtext));
+    /** Sets the similarity this searcher ranks with. */
+    static void configure(IndexSearcher searcher) {
+        searcher.setSimilarity(similarity());
+    }
 
-                // Apply boosts
-                BoostQuery boostedTitle = new BoostQuery(titleQ, titleBoost);
-                BoostQuery boostedBody = new BoostQuery(bodyQ, bodyBoost);
+    /** The similarity this searcher ranks with. */
+    static Similarity similarity() {
+        return new BM25Similarity(1.5f, 0.6f);  // ✅ tuned BM25
+    }
 
-                // Combine
-                BooleanQuery.Builder combined = new BooleanQuery.Builder();
-                combined.add(boostedTitle, BooleanClause.Occur.SHOULD);
-                combined.add(boostedBody, BooleanClause.Occur.SHOULD);
+    private Map<Integer, Query> booleanQueries(QuerySource source) throws Exception {
+        Map<Integer, Query> titleQueries = source.parsed("english", "title");
+        Map<Integer, Query> out = new HashMap<>();
+        for (Map.Entry<Integer, Query> e : source.parsed("english", "content").entrySet()) {
+            out.put(e.getKey(), booleanQuery(titleQueries.get(e.getKey()), e.getValue()));
+        }
+        return out;
+    }
 
-                TopDocs top = searcher.search(combined.build(), 1000);
-                ScoreDoc[] hits = top.scoreDocs;
+    private Map<Integer, Query> combinedQueries(QuerySource source) throws Exception {
+        Map<Integer, Query> out = new HashMap<>();
+        for (Map.Entry<Integer, Query> e : source.parsed("english", "content").entrySet()) {
+            out.put(e.getKey(), combinedQuery(e.getValue()));
+        }
+        return out;
+    }
 
-                for (int i = 0; i < hits.length; i++) {
-                    Document doc = searcher.doc(hits[i].doc);
-                    String docno = doc.get("id");
-                    float score = hits[i].score;
-                    int rank = i + 1;
-                    bw.write(qid + " Q0 " + docno + " " + rank + " " + score + " run_boost_title" + titleBoost + "_body" + bodyBoost);
-                    bw.newLine();
-                }
-            }
+    /** The query this searcher runs for one query text, parsed once per field with the english analyzer. */
+    Query query(Query titleQ, Query contentQ) {
+        return mode == Mode.COMBINED ? combinedQuery(contentQ) : booleanQuery(titleQ, contentQ);
+    }
 
-            bw.flush();
-        }
+    // title and content queries, each boosted, ORed together
+    private Query booleanQuery(Query titleQ, Query contentQ) {
+        BooleanQuery.Builder combined = new BooleanQuery.Builder();
+        combined.add(new BoostQuery(titleQ, titleBoost), BooleanClause.Occur.SHOULD);
+        combined.add(new BoostQuery(contentQ, bodyBoost), BooleanClause.Occur.SHOULD);
+        return combined.build();
     }
 
-    private static Map<Integer, String> parseCranQueries(String queriesFile) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(queriesFile));
-        Map<Integer, String> map = new LinkedHashMap<>();
-        String line;
-        int currentId = 0;
-        StringBuilder sb = null;
-        boolean inW = false;
-
-        while ((line = br.readLine()) != null) {
-            line = line.trim();
-            if (line.startsWith(".I")) {
-                if (currentId != 0 && sb != null) {
-                    map.put(currentId, sb.toString().trim());
+    // one CombinedFieldQuery per query term (repeats included, like the parsed query), ORed together
+    private Query combinedQuery(Query contentQ) {
+        BooleanQuery.Builder combined = new BooleanQuery.Builder();
+        contentQ.visit(new QueryVisitor() {
+            @Override
+            public void consumeTerms(Query query, Term... terms) {
+                for (Term t : terms) {
+                    Query bm25f = new CombinedFieldQuery.Builder()
+                            .addField("title", titleBoost)
+                            .addField("content", bodyBoost)
+                            .addTerm(t.bytes())
+                            .build();
+                    combined.add(bm25f, BooleanClause.Occur.SHOULD);
                 }
-                currentId++;
-                sb = new StringBuilder();
-                inW = false;
-            } else if (line.startsWith(".W")) {
-                inW = true;
-            } else if (inW && !line.isEmpty()) {
-                if (sb.length() > 0) sb.append(" ");
-                sb.append(line);
             }
-        }
-
-        if (currentId != 0 && sb != null) {
-            map.put(currentId, sb.toString().trim());
-        }
-
-        br.close();
-        return map;
+        });
+        return combined.build();
     }
 }
@@ -0,0 +1,141 @@
+package com.example.cran;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads Cranfield-format documents one record at a time, so only the current
+ * record is ever held in memory regardless of the collection size.
+ *
+ * Records start at a line beginning with ".I" plus whitespace; within a record the
+ * .T/.A/.B/.W sections are cut exactly as {@link CranfieldParser#parseDocs()} always
+ * cut them, so both produce identical documents.
+ */
+public class CranDocReader implements Iterator<CranfieldParser.CranDoc>, Closeable {
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos = 0, limit = 0;
+
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder record = new StringBuilder();
+    private boolean eof = false;
+    private CranfieldParser.CranDoc next;
+
+    public CranDocReader(InputStream in) {
+        this.in = new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) return true;
+        try {
+            while (next == null && !eof) {
+                next = toDoc(readRecord());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return next != null;
+    }
+
+    @Override
+    public CranfieldParser.CranDoc next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        CranfieldParser.CranDoc d = next;
+        next = null;
+        return d;
+    }
+
+    // Everything up to (not including) the next ".I" line; the ".I" itself is dropped
+    private String readRecord() throws IOException {
+        while (readLine()) {
+            if (isRecordStart(line) && record.length() > 0) {
+                String r = record.toString();
+                record.setLength(0);
+                record.append(line, 2, line.length());
+                return r;
+            }
+            if (record.length() > 0) record.append('\n');
+            record.append(line);
+        }
+        eof = true;
+        return record.toString();
+    }
+
+    // matches the "\n.I\s+" separator: a line starting with ".I" followed by whitespace or its end
+    private static boolean isRecordStart(CharSequence l) {
+        return l.length() >= 2 && l.charAt(0) == '.' && l.charAt(1) == 'I'
+                && (l.length() == 2 || isSpace(l.charAt(2)));
+    }
+
+    // Lines end at '\n' only; a '\r' stays in the line like it did in the regex split
+    private boolean readLine() throws IOException {
+        line.setLength(0);
+        while (true) {
+            if (pos == limit) {
+                limit = in.read(buf);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return line.length() > 0;
+                }
+            }
+            int start = pos;
+            while (pos < limit && buf[pos] != '\n') pos++;
+            line.append(buf, start, pos - start);
+            if (pos < limit) {
+                pos++;
+                return true;
+            }
+        }
+    }
+
+    private static CranfieldParser.CranDoc toDoc(String block) {
+        String b = block.trim();
+        // the first record has no preceding newline, so its ".I" marker is still attached
+        if (b.startsWith(".I")) b = b.substring(2).trim();
+        if (b.isEmpty()) return null;
+        // First line is the id
+        int nl = b.indexOf('\n');
+        String id = (nl == -1) ? b : b.substring(0, nl).trim();
+        String rest = (nl == -1) ? "" : b.substring(nl + 1);
+
+        CranfieldParser.CranDoc d = new CranfieldParser.CranDoc();
+        d.docno = id;
+        d.title = section(rest, ".T", ".A");
+        d.author = section(rest, ".A", ".B");
+        d.biblio = section(rest, ".B", ".W");
+        d.body = section(rest, ".W", null);
+        return d;
+    }
+
+    // text between the first startMarker and the following nextMarker, whitespace-stripped and without '\r'
+    private static String section(String text, String startMarker, String nextMarkerOrNull) {
+        int s = text.indexOf(startMarker);
+        if (s < 0) return "";
+        s += startMarker.length();
+        int e = (nextMarkerOrNull == null) ? -1 : text.indexOf(nextMarkerOrNull, s);
+        if (e < 0) e = text.length();
+        while (s < e && isSpace(text.charAt(s))) s++;
+        while (e > s && isSpace(text.charAt(e - 1))) e--;
+        String chunk = text.substring(s, e);
+        return chunk.indexOf('\r') < 0 ? chunk : chunk.replace("\r", "");
+    }
+
+    // the regex \s class: [ \t\n\x0B\f\r]
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
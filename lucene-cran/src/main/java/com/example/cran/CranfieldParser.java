@@ -3,7 +3,9 @@ package com.example.cran;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class CranfieldParser {
     public static class CranDoc {
@@ -20,77 +22,45 @@ public class CranfieldParser {
         this.dataDir = dataDir;
     }
 
-    public List<CranDoc> parseDocs() throws IOException {
-        File f = new File(dataDir, "cran.all.1400");
-        if (!f.exists()) throw new FileNotFoundException("Missing cran.all.1400 in " + dataDir.getAbsolutePath());
-        String text = new String(java.nio.file.Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
-
-        // Cranfield format: .I <id>, .T title, .A author, .B biblio, .W body
-        List<CranDoc> docs = new ArrayList<>();
-        String[] blocks = text.split("\\n\\.I\\s+"); // split on .I (doc id)
-        for (String block : blocks) {
-            String b = block.trim();
-            if (b.isEmpty()) continue;
-            // First line is the id
-            int nl = b.indexOf('\n');
-            String id = (nl == -1) ? b : b.substring(0, nl).trim();
-            String rest = (nl == -1) ? "" : b.substring(nl + 1);
-
-            CranDoc d = new CranDoc();
-            d.docno = id;
-
-            // Extract fields by section markers
-            d.title = extractSection(rest, ".T", ".A");
-            d.author = extractSection(rest, ".A", ".B");
-            d.biblio = extractSection(rest, ".B", ".W");
-            d.body = extractSection(rest, ".W", null);
+    /** The collection file, cran.all.1400. */
+    public File docsFile() {
+        return new File(dataDir, "cran.all.1400");
+    }
 
-            docs.add(d);
+    /** Reads the whole collection into memory; prefer {@link #streamDocs()} for large collections. */
+    public List<CranDoc> parseDocs() throws IOException {
+        try (Stream<CranDoc> docs = streamDocs()) {
+            return docs.collect(Collectors.toList());
         }
-        return docs;
     }
 
-    private static String extractSection(String text, String startMarker, String nextMarkerOrNull) {
-        int s = text.indexOf(startMarker);
-        if (s < 0) return "";
-        s = s + startMarker.length();
-        int e = (nextMarkerOrNull == null) ? -1 : text.indexOf(nextMarkerOrNull, s);
-        String chunk = (e < 0) ? text.substring(s) : text.substring(s, e);
-        return chunk.replaceAll("^\\s+|\\s+$", "").replace("\r", "");
+    /**
+     * Streams the documents of cran.all.1400 one at a time, in file order.
+     * Cranfield format: .I <id>, .T title, .A author, .B biblio, .W body.
+     * The stream holds the file open and must be closed.
+     */
+    public Stream<CranDoc> streamDocs() throws IOException {
+        File f = docsFile();
+        if (!f.exists()) throw new FileNotFoundException("Missing cran.all.1400 in " + dataDir.getAbsolutePath());
+        CranDocReader reader = new CranDocReader(new FileInputStream(f));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
     }
 
-    /** Returns queries as map: qid -> text (from cran.qry) */
+    /**
+     * Returns queries as map: ".I" id -> text (from cran.qry).
+     * Searchers use {@link QuerySource} directly, whose sequential ids match cranqrel.
+     */
     public Map<Integer, String> parseQueries() throws IOException {
         File f = new File(dataDir, "cran.qry");
         if (!f.exists()) throw new FileNotFoundException("Missing cran.qry in " + dataDir.getAbsolutePath());
-        String text = new String(java.nio.file.Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
-        Map<Integer, String> queries = new LinkedHashMap<>();
-
-        // Queries are similar to docs: .I <id> followed by .W and the text
-        String[] blocks = text.split("\\n\\.I\\s+");
-        Pattern pId = Pattern.compile("^(\\d+)");
-        for (String block : blocks) {
-            String b = block.trim();
-            if (b.isEmpty()) continue;
-            BufferedReader br = new BufferedReader(new StringReader(b));
-            String first = br.readLine();
-            if (first == null) continue;
-            Matcher m = pId.matcher(first.trim());
-            if (!m.find()) continue;
-            int qid = Integer.parseInt(m.group(1));
-            String rest = b.substring(first.length());
-            String qtext = sectionAfter(rest, ".W");
-            qtext = qtext.replaceAll("\\s+", " ").trim();
-            queries.put(qid, qtext);
-        }
-        return queries;
-    }
-
-    private static String sectionAfter(String text, String marker) {
-        int s = text.indexOf(marker);
-        if (s < 0) return text.trim();
-        s += marker.length();
-        return text.substring(s).trim();
+        return QuerySource.load(f.getPath()).byOriginalId();
     }
 
     /** Returns qrels lines as: qid 0 docno rel */
@@ -9,6 +9,11 @@ import org.apache.lucene.analysis.standard.StandardTokenizer;
 
 public class CustomAnalyzer extends Analyzer {
 
+    // components differ by field, so they can't be reused across fields
+    public CustomAnalyzer() {
+        super(PER_FIELD_REUSE_STRATEGY);
+    }
+
     @Override
     protected TokenStreamComponents createComponents(String fieldName) {
         if ("title".equals(fieldName)) {
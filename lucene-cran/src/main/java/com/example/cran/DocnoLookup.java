@@ -0,0 +1,124 @@
+package com.example.cran;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps global doc ids to Cranfield docnos through tables preloaded from the
+ * "id" doc values, so writing results never touches (or decompresses) stored fields.
+ * Tables are built per segment and shared by every reader containing that segment, so a
+ * reopened reader (e.g. a near-real-time refresh) only loads its new segments.
+ */
+public final class DocnoLookup {
+    private static final Map<IndexReader.CacheKey, DocnoLookup> READERS = new ConcurrentHashMap<>();
+    private static final Map<IndexReader.CacheKey, String[]> SEGMENTS = new ConcurrentHashMap<>();
+
+    private final List<LeafReaderContext> leaves;
+    private final String[][] docnos; // per leaf, indexed by the leaf's doc id
+    private volatile Map<String, Integer> docIds;
+
+    private DocnoLookup(List<LeafReaderContext> leaves, String[][] docnos) {
+        this.leaves = leaves;
+        this.docnos = docnos;
+    }
+
+    public static DocnoLookup of(IndexReader reader) throws IOException {
+        IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        if (helper == null) return load(reader);
+
+        DocnoLookup lookup = READERS.get(helper.getKey());
+        if (lookup == null) {
+            // cheap once its segments are loaded; racing requests at worst build it twice
+            lookup = load(reader);
+            if (READERS.putIfAbsent(helper.getKey(), lookup) == null) {
+                helper.addClosedListener(READERS::remove);
+            }
+        }
+        return lookup;
+    }
+
+    public String get(int docId) {
+        int leaf = ReaderUtil.subIndex(docId, leaves);
+        return docnos[leaf][docId - leaves.get(leaf).docBase];
+    }
+
+    /** The live document with {@code docno}, or -1; the reverse table is built on first use. */
+    public int docId(String docno) {
+        Map<String, Integer> ids = docIds;
+        if (ids == null) {
+            ids = new HashMap<>();
+            for (int i = 0; i < leaves.size(); i++) {
+                LeafReaderContext ctx = leaves.get(i);
+                Bits liveDocs = ctx.reader().getLiveDocs();
+                for (int doc = 0; doc < docnos[i].length; doc++) {
+                    if (docnos[i][doc] != null && (liveDocs == null || liveDocs.get(doc))) ids.put(docnos[i][doc], ctx.docBase + doc);
+                }
+            }
+            docIds = ids;
+        }
+        return ids.getOrDefault(docno, -1);
+    }
+
+    private static DocnoLookup load(IndexReader reader) throws IOException {
+        List<LeafReaderContext> leaves = reader.leaves();
+        String[][] docnos = new String[leaves.size()][];
+        for (int i = 0; i < docnos.length; i++) docnos[i] = segment(leaves.get(i).reader());
+        return new DocnoLookup(leaves, docnos);
+    }
+
+    // keyed on the segment's core, which deletions don't change
+    private static String[] segment(LeafReader leaf) throws IOException {
+        IndexReader.CacheHelper helper = leaf.getCoreCacheHelper();
+        if (helper == null) return loadSegment(leaf);
+        String[] docnos = SEGMENTS.get(helper.getKey());
+        if (docnos != null) return docnos;
+        try {
+            docnos = SEGMENTS.computeIfAbsent(helper.getKey(), k -> {
+                try {
+                    String[] loaded = loadSegment(leaf);
+                    helper.addClosedListener(SEGMENTS::remove);
+                    return loaded;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return docnos;
+    }
+
+    private static String[] loadSegment(LeafReader leaf) throws IOException {
+        String[] docnos = new String[leaf.maxDoc()];
+        FieldInfo fi = leaf.getFieldInfos().fieldInfo("id");
+        if (fi != null && fi.getDocValuesType() == DocValuesType.SORTED) {
+            SortedDocValues dv = DocValues.getSorted(leaf, "id");
+            for (int doc = dv.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = dv.nextDoc()) {
+                docnos[doc] = dv.lookupOrd(dv.ordValue()).utf8ToString();
+            }
+        } else {
+            // index written before docnos had doc values
+            StoredFields stored = leaf.storedFields();
+            for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                docnos[doc] = stored.document(doc).get("id");
+            }
+        }
+        return docnos;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.cran;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Feeds one stream of parsed documents to several index writers running concurrently:
+ * the calling thread routes each document into the bounded queue of one or more writers
+ * and every writer drains its own queue on its own thread. Used to build all shadow
+ * indexes from a single parse ({@link ShadowIndexes}) and to partition the collection
+ * into shards ({@link ShardedIndex}).
+ */
+final class DocumentFanOut {
+    /** Consumes the documents routed to one writer, e.g. by {@link Indexer#apply}. */
+    @FunctionalInterface
+    interface Writer {
+        void write(Iterator<CranfieldParser.CranDoc> docs) throws Exception;
+    }
+
+    /** The writers that receive {@code d}, the {@code seq}-th document of the stream. */
+    @FunctionalInterface
+    interface Route {
+        int[] targets(CranfieldParser.CranDoc d, long seq);
+    }
+
+    private DocumentFanOut() {}
+
+    /** Routes every document, waits for all writers and rethrows the first failure. */
+    static void run(Iterator<CranfieldParser.CranDoc> docs, List<Writer> writers, Route route, int queueSize) throws Exception {
+        List<BlockingQueue<CranfieldParser.CranDoc>> queues = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService threads = Executors.newFixedThreadPool(writers.size());
+        try {
+            for (Writer writer : writers) {
+                BlockingQueue<CranfieldParser.CranDoc> queue = new ArrayBlockingQueue<>(queueSize);
+                queues.add(queue);
+                threads.execute(() -> {
+                    QueueIterator it = new QueueIterator(queue);
+                    try {
+                        writer.write(it);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        // keep draining so the caller never blocks on this writer's full queue
+                        it.drain();
+                    }
+                });
+            }
+
+            try {
+                for (long seq = 0; docs.hasNext() && failure.get() == null; seq++) {
+                    CranfieldParser.CranDoc d = docs.next();
+                    for (int target : route.targets(d, seq)) queues.get(target).put(d);
+                }
+            } finally {
+                for (BlockingQueue<CranfieldParser.CranDoc> q : queues) q.put(END);
+            }
+            threads.shutdown();
+            threads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+            Throwable t = failure.get();
+            if (t instanceof Exception e) throw e;
+            if (t instanceof Error e) throw e;
+            if (t != null) throw new IllegalStateException(t);
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private static final CranfieldParser.CranDoc END = new CranfieldParser.CranDoc();
+
+    // the documents one writer receives, up to the END marker
+    private static final class QueueIterator implements Iterator<CranfieldParser.CranDoc> {
+        private final BlockingQueue<CranfieldParser.CranDoc> queue;
+        private CranfieldParser.CranDoc next;
+        private boolean done;
+
+        QueueIterator(BlockingQueue<CranfieldParser.CranDoc> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = take();
+                if (next == END) {
+                    next = null;
+                    done = true;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public CranfieldParser.CranDoc next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            CranfieldParser.CranDoc d = next;
+            next = null;
+            return d;
+        }
+
+        void drain() {
+            while (!done) {
+                if (take() == END) done = true;
+            }
+        }
+
+        private CranfieldParser.CranDoc take() {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for documents", e);
+            }
+        }
+    }
+}
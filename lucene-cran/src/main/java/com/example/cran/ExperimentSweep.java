@@ -0,0 +1,292 @@
+package com.example.cran;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a set of search configurations concurrently against one shared index reader.
+ * The index is opened once; every configuration gets the same (thread-safe) reader
+ * and builds its own IndexSearcher on top of it.
+ */
+public class ExperimentSweep implements Closeable {
+
+    /** One search configuration: sends its ranked lists for the given reader to {@code sink}. */
+    @FunctionalInterface
+    public interface Run {
+        void search(IndexReader reader, RunSink sink) throws Exception;
+    }
+
+    /** Several configurations computed together: sends configuration i's ranked lists to {@code sinks[i]}. */
+    @FunctionalInterface
+    public interface GroupRun {
+        void search(IndexReader reader, RunSink[] sinks) throws Exception;
+    }
+
+    private static class Config {
+        final String[] tags;
+        final GroupRun run;
+        final String index; // null for the main index
+        final String[] params; // per tag, settings the tag doesn't spell out: part of the run cache key
+
+        final StageTimer timer = new StageTimer();
+        boolean cached;
+
+        Config(String[] tags, GroupRun run, String index, String[] params) {
+            this.tags = tags;
+            this.run = run;
+            this.index = index;
+            this.params = params;
+        }
+    }
+
+    private final Directory dir;
+    private final DirectoryReader reader;
+    private final Map<String, Directory> indexDirs = new LinkedHashMap<>();
+    private final Map<String, IndexReader> indexReaders = new HashMap<>();
+    private final List<DirectoryReader> ownedReaders = new ArrayList<>();
+    private final List<Config> configs = new ArrayList<>();
+    private RunCache runCache;
+    private boolean binaryRuns;
+
+    /** Opens the index at {@code indexPath} with the storage chosen by -Dcran.storage. */
+    public ExperimentSweep(Path indexPath) throws IOException {
+        this(IndexStorage.fromSystemProperties().open(indexPath));
+    }
+
+    /** Sweeps over the index in {@code dir}, which is closed with the sweep. */
+    public ExperimentSweep(Directory dir) throws IOException {
+        this.dir = dir;
+        this.reader = DirectoryReader.open(dir);
+    }
+
+    /** The main index's reader, shared by every configuration that doesn't name another index. */
+    public IndexReader reader() {
+        return reader;
+    }
+
+    /**
+     * Opens another index, e.g. a {@link ShadowIndexes shadow index}, for configurations
+     * added with {@link #add(String, String, Similarity, Run)}. It is closed with the sweep.
+     */
+    public void addIndex(String name, Directory indexDir) throws IOException {
+        if (indexReaders.containsKey(name)) throw new IllegalArgumentException("index " + name + " already added");
+        DirectoryReader indexReader = DirectoryReader.open(indexDir);
+        ownedReaders.add(indexReader);
+        indexReaders.put(name, indexReader);
+        indexDirs.put(name, indexDir);
+    }
+
+    /** Adds an index that is already open, e.g. {@link ShardedIndex#reader()}; the caller keeps it open until the sweep is closed. */
+    public void addIndex(String name, IndexReader indexReader) {
+        if (indexReaders.containsKey(name)) throw new IllegalArgumentException("index " + name + " already added");
+        indexReaders.put(name, indexReader);
+    }
+
+    /**
+     * Replays configurations whose ranked lists {@code cache} already holds instead of
+     * searching; the others are stored there once they finish. Null turns caching off.
+     */
+    public void setRunCache(RunCache cache) {
+        this.runCache = cache;
+    }
+
+    /** Writes run files as {@link RunFile binary runs} (cran_results_<tag>.run) instead of TREC text. */
+    public void setBinaryRuns(boolean binaryRuns) {
+        this.binaryRuns = binaryRuns;
+    }
+
+    /** Adds a configuration that ranks with {@code similarity}, which is part of its run cache key. */
+    public void add(String tag, Similarity similarity, Run run) {
+        add(tag, null, similarity, run);
+    }
+
+    /** Adds a configuration that searches the index registered as {@code index} instead of the main one. */
+    public void add(String tag, String index, Similarity similarity, Run run) {
+        add(tag, index, similarity, null, run);
+    }
+
+    /**
+     * Adds a configuration whose settings aren't all in its tag, e.g. tuned parameters;
+     * {@code params} describes them so a cached run is only reused for the same settings.
+     */
+    public void add(String tag, String index, Similarity similarity, String params, Run run) {
+        if (index != null && !indexReaders.containsKey(index)) throw new IllegalArgumentException("unknown index " + index);
+        configs.add(new Config(new String[] {tag}, (reader, sinks) -> run.search(reader, sinks[0]), index,
+                new String[] {cacheParams(similarity, params)}));
+    }
+
+    /**
+     * Adds configurations that one search produces together, e.g. a parameter grid scored in a single pass;
+     * configuration i ranks with {@code similarities[i]}.
+     */
+    public void addGroup(String[] tags, Similarity[] similarities, GroupRun run) {
+        if (similarities.length != tags.length) throw new IllegalArgumentException("one similarity per tag expected");
+        String[] params = new String[tags.length];
+        for (int i = 0; i < tags.length; i++) params[i] = cacheParams(similarities[i], null);
+        configs.add(new Config(tags.clone(), run, null, params));
+    }
+
+    // the similarity's toString() spells out its parameters, e.g. BM25(k1=1.2,b=0.75)
+    private static String cacheParams(Similarity similarity, String params) {
+        return similarity + (params == null ? "" : " " + params);
+    }
+
+    /** Number of configurations (a group counts once per tag). */
+    public int size() {
+        int n = 0;
+        for (Config c : configs) n += c.tags.length;
+        return n;
+    }
+
+    /**
+     * Runs every registered configuration on a pool of at most {@code threads} workers,
+     * evaluates it in memory and writes {@code resultsDir/metrics_<tag>.txt}, with its stage
+     * latencies in {@code latency_<tag>.json} alongside and all of them in {@code latency_summary.csv}.
+     * Latencies of configurations running side by side affect each other; use one thread
+     * for clean numbers. Run files (TREC text, or {@link #setBinaryRuns binary}) are only
+     * written when {@code runDir} is not null.
+     * A failing configuration does not stop the others; the first failure is rethrown
+     * once all of them have finished. With a {@link #setRunCache run cache}, cached
+     * configurations are evaluated from their stored ranked lists without searching.
+     */
+    public void run(int threads, TrecEvaluator evaluator, String resultsDir, String runDir) throws Exception {
+        int poolSize = Math.max(1, Math.min(threads, configs.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Config c : configs) {
+                futures.add(pool.submit(() -> {
+                    evaluate(c, evaluator, resultsDir, runDir);
+                    return null;
+                }));
+            }
+
+            Exception failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (Exception e) {
+                    System.err.println("Configuration " + String.join(",", configs.get(i).tags) + " failed: " + e.getCause());
+                    if (failure == null) failure = e;
+                }
+            }
+            if (failure != null) throw failure;
+        } finally {
+            pool.shutdown();
+        }
+
+        StringBuilder csv = new StringBuilder(StageTimer.CSV_HEADER).append('\n');
+        for (Config c : configs) {
+            if (c.cached) continue;
+            for (String tag : c.tags) csv.append(c.timer.toCsvRows(tag));
+        }
+        StageTimer.write(resultsDir + "/latency_summary.csv", csv.toString());
+
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Sweep of " + size() + " configurations finished in " + ms + " ms (" + poolSize + " threads)");
+    }
+
+    private void evaluate(Config c, TrecEvaluator evaluator, String resultsDir, String runDir) throws Exception {
+        int n = c.tags.length;
+        IndexReader reader = c.index == null ? this.reader : indexReaders.get(c.index);
+        TrecEvaluator.Run[] evals = new TrecEvaluator.Run[n];
+        Closeable[] writers = new Closeable[n];
+        Closeable[] aborts = new Closeable[n]; // drop each run file unpublished
+        RunSink[] sinks = new RunSink[n];
+
+        // a group is replayed only if every one of its configurations is cached
+        String[] keys = new String[n];
+        RunFile[] cachedRuns = new RunFile[n];
+        int[][] cachedDocIds = new int[n][];
+        RunFile.Writer[] recorders = new RunFile.Writer[n];
+        int hits = 0;
+        for (int i = 0; i < n && runCache != null; i++) {
+            keys[i] = runCache.key(c.tags[i], c.params[i], reader);
+            cachedRuns[i] = keys[i] == null ? null : runCache.load(keys[i]);
+            cachedDocIds[i] = cachedRuns[i] == null ? null : cachedRuns[i].resolve(reader);
+            if (cachedDocIds[i] != null) hits++;
+        }
+        c.cached = hits == n;
+
+        boolean complete = false;
+        try {
+            for (int i = 0; i < n; i++) {
+                evals[i] = evaluator.newRun(reader);
+                RunSink sink = evals[i];
+                if (runDir != null) {
+                    String runFile = runDir + "/cran_results_" + c.tags[i] + (binaryRuns ? ".run" : ".txt");
+                    RunSink writer;
+                    if (binaryRuns) {
+                        RunFile.Writer w = new RunFile.Writer(Paths.get(runFile), reader, "run_" + c.tags[i]);
+                        aborts[i] = w::abort;
+                        writers[i] = w;
+                        writer = w;
+                    } else {
+                        TrecRunWriter w = new TrecRunWriter(runFile, reader, "run_" + c.tags[i]);
+                        aborts[i] = w::abort;
+                        writers[i] = w;
+                        writer = w;
+                    }
+                    sink = RunSink.tee(evals[i], writer);
+                }
+                if (!c.cached && keys[i] != null) {
+                    recorders[i] = runCache.writer(keys[i], reader);
+                    sink = RunSink.tee(sink, recorders[i]);
+                }
+                sinks[i] = RunSink.timed(sink, c.timer);
+            }
+            if (c.cached) {
+                for (int i = 0; i < n; i++) cachedRuns[i].replay(cachedDocIds[i], sinks[i]);
+            } else {
+                long start = System.nanoTime();
+                c.run.search(reader, sinks);
+                c.timer.setWallNanos(System.nanoTime() - start);
+                // only complete runs reach the cache
+                IOUtils.close(recorders);
+            }
+            // and only complete runs are published as run files
+            IOUtils.close(writers);
+            complete = true;
+        } finally {
+            if (!complete) IOUtils.closeWhileHandlingException(aborts);
+        }
+
+        for (int i = 0; i < n; i++) {
+            String metricsFile = resultsDir + "/metrics_" + c.tags[i] + ".txt";
+            TrecEvaluator.Metrics metrics = evals[i].summary();
+            metrics.writeTo(metricsFile);
+            // a replayed run has no latencies of its own; the earlier run's files stay as they were
+            if (!c.cached) c.timer.writeJson(resultsDir + "/latency_" + c.tags[i] + ".json", c.tags[i]);
+            String source = c.cached ? " (cached)"
+                    : String.format(Locale.ROOT, " (%d queries, %.1f q/s)", c.timer.queries(), c.timer.queriesPerSecond());
+            // One println per configuration so concurrent results don't interleave
+            System.out.println("\n🔸 Evaluating " + c.tags[i] + "...\n" + metrics.format() + "Metrics saved to " + metricsFile + source);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(ownedReaders);
+        IOUtils.close(indexDirs.values());
+        reader.close();
+        dir.close();
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.cran;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * First-pass results shared between configurations that only differ after the first pass
+ * (the Rocchio and rerank grids), keyed by (reader, similarity, query).
+ *
+ * Each entry holds the top hits up to the deepest depth requested so far; smaller
+ * requests are served from its prefix, which is exactly what a shallower search
+ * would return. Feedback terms are kept per entry and feedback depth. Concurrent
+ * requests for the same key wait for one computation. The cache is bounded and
+ * evicts the oldest entries first; a size of 0 turns it off (e.g. for benchmarks).
+ */
+public final class FeedbackCache {
+    private static final FeedbackCache SHARED = new FeedbackCache(
+            Integer.getInteger("cran.feedbackCacheSize", 10_000),
+            Integer.getInteger("cran.feedbackDepth", 100));
+
+    private final int maxEntries;
+    private final int minDepth;
+    private final Map<Key, CompletableFuture<Entry>> entries = new ConcurrentHashMap<>();
+    private final Queue<Key> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final Set<IndexReader.CacheKey> watchedReaders = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * @param maxEntries entries kept before the oldest are evicted; 0 disables caching
+     * @param minDepth   hits fetched per first pass at least, so later deeper requests rarely re-search
+     */
+    public FeedbackCache(int maxEntries, int minDepth) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.minDepth = Math.max(1, minDepth);
+    }
+
+    public static FeedbackCache shared() {
+        return SHARED;
+    }
+
+    /** Same hits as {@code searcher.search(q, k)}; the ScoreDocs are copies and may be modified. */
+    public TopDocs topDocs(IndexSearcher searcher, Query q, int k) throws IOException {
+        Entry e = entry(searcher, q, k);
+        if (e == null) return TopKSearch.shared().search(searcher, q, k);
+
+        int n = Math.min(k, e.hits.scoreDocs.length);
+        ScoreDoc[] hits = new ScoreDoc[n];
+        for (int i = 0; i < n; i++) {
+            ScoreDoc sd = e.hits.scoreDocs[i];
+            hits[i] = new ScoreDoc(sd.doc, sd.score, sd.shardIndex);
+        }
+        return new TopDocs(e.hits.totalHits, hits);
+    }
+
+    /**
+     * Terms of the top {@code fbDocs} hits of {@code q}, as {@link FeedbackTerms#collect} returns them.
+     * The result is shared and must only be read.
+     */
+    public FeedbackTerms feedbackTerms(IndexSearcher searcher, Query q, int fbDocs, Analyzer analyzer) throws IOException {
+        Entry e = entry(searcher, q, fbDocs);
+        if (e == null) return FeedbackTerms.collect(searcher.getIndexReader(), TopKSearch.shared().search(searcher, q, fbDocs).scoreDocs, analyzer);
+
+        try {
+            return e.terms.computeIfAbsent(fbDocs, n -> {
+                try {
+                    ScoreDoc[] top = Arrays.copyOf(e.hits.scoreDocs, Math.min(n, e.hits.scoreDocs.length));
+                    return FeedbackTerms.collect(searcher.getIndexReader(), top, analyzer);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private Entry entry(IndexSearcher searcher, Query q, int k) throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        if (helper == null || maxEntries == 0) return null; // disabled, or no stable reader identity to key on
+        watch(helper);
+
+        Key key = new Key(helper.getKey(), searcher.getSimilarity().toString(), q);
+        while (true) {
+            CompletableFuture<Entry> f = entries.get(key);
+            if (f == null) {
+                CompletableFuture<Entry> mine = new CompletableFuture<>();
+                f = entries.putIfAbsent(key, mine);
+                if (f == null) {
+                    insertionOrder.add(key);
+                    evict();
+                    return compute(searcher, q, k, key, mine);
+                }
+            }
+
+            Entry e = await(f);
+            // a full entry may have more hits beyond its depth; go deeper and replace it
+            if (k <= e.depth || e.hits.scoreDocs.length < e.depth) return e;
+            CompletableFuture<Entry> deeper = new CompletableFuture<>();
+            if (entries.replace(key, f, deeper)) return compute(searcher, q, k, key, deeper);
+        }
+    }
+
+    private Entry compute(IndexSearcher searcher, Query q, int k, Key key, CompletableFuture<Entry> f) throws IOException {
+        try {
+            int depth = Math.max(k, minDepth);
+            Entry e = new Entry(TopKSearch.shared().search(searcher, q, depth), depth);
+            f.complete(e);
+            return e;
+        } catch (IOException | RuntimeException ex) {
+            entries.remove(key, f);
+            f.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    private static Entry await(CompletableFuture<Entry> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private void evict() {
+        while (entries.size() > maxEntries) {
+            Key oldest = insertionOrder.poll();
+            if (oldest == null) return;
+            entries.remove(oldest);
+        }
+    }
+
+    // drop a reader's entries once it is closed
+    private void watch(IndexReader.CacheHelper helper) {
+        if (watchedReaders.add(helper.getKey())) {
+            helper.addClosedListener(readerKey -> {
+                watchedReaders.remove(readerKey);
+                entries.keySet().removeIf(k -> k.reader == readerKey);
+                insertionOrder.removeIf(k -> k.reader == readerKey);
+            });
+        }
+    }
+
+    private static final class Entry {
+        final TopDocs hits;
+        final int depth;
+        final Map<Integer, FeedbackTerms> terms = new ConcurrentHashMap<>();
+
+        Entry(TopDocs hits, int depth) {
+            this.hits = hits;
+            this.depth = depth;
+        }
+    }
+
+    private static final class Key {
+        final IndexReader.CacheKey reader;
+        final String similarity;
+        final Query query;
+        final int hash;
+
+        Key(IndexReader.CacheKey reader, String similarity, Query query) {
+            this.reader = reader;
+            this.similarity = similarity;
+            this.query = query;
+            this.hash = Objects.hash(reader, similarity, query);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return reader == k.reader && similarity.equals(k.similarity) && query.equals(k.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
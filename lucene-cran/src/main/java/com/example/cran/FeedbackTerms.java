@@ -0,0 +1,108 @@
+package com.example.cran;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.TermVectors;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+
+import java.io.IOException;
+
+/**
+ * Term frequencies summed over a set of feedback documents (title + content),
+ * keyed by the indexed term bytes with a primitive count per term.
+ *
+ * Counts come straight from the documents' term vectors; indexes built without
+ * term vectors fall back to re-analyzing the stored text.
+ */
+public class FeedbackTerms {
+    private static final String[] FIELDS = {"title", "content"};
+    private static final int MIN_TERM_LENGTH = 3; // discard tiny tokens
+
+    private final BytesRefHash terms = new BytesRefHash();
+    private int[] freqs = new int[16];
+
+    /** Collects the terms of {@code docs}; {@code analyzer} is only used when term vectors are missing. */
+    public static FeedbackTerms collect(IndexReader reader, ScoreDoc[] docs, Analyzer analyzer) throws IOException {
+        FeedbackTerms out = new FeedbackTerms();
+        TermVectors vectors = reader.termVectors();
+        for (ScoreDoc sd : docs) {
+            boolean found = false;
+            for (String field : FIELDS) {
+                Terms tv = vectors.get(sd.doc, field);
+                if (tv == null) continue;
+                found = true;
+                TermsEnum te = tv.iterator();
+                for (BytesRef term = te.next(); term != null; term = te.next()) {
+                    out.add(term, (int) te.totalTermFreq());
+                }
+            }
+            if (!found) {
+                Document d = reader.storedFields().document(sd.doc);
+                StringBuilder sb = new StringBuilder();
+                String title = d.get("title");
+                String content = d.get("content");
+                if (title != null) sb.append(title).append(' ');
+                if (content != null) sb.append(content);
+                out.addTokens(analyzer, "content", sb.toString());
+            }
+        }
+        return out;
+    }
+
+    private void addTokens(Analyzer analyzer, String field, String text) throws IOException {
+        try (TokenStream ts = analyzer.tokenStream(field, text)) {
+            TermToBytesRefAttribute termAtt = ts.addAttribute(TermToBytesRefAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                add(termAtt.getBytesRef(), 1);
+            }
+            ts.end();
+        }
+    }
+
+    private void add(BytesRef term, int freq) {
+        if (charLength(term) < MIN_TERM_LENGTH) return;
+        int id = terms.add(term);
+        if (id < 0) {
+            id = -id - 1;
+        } else {
+            freqs = ArrayUtil.grow(freqs, id + 1);
+        }
+        freqs[id] += freq;
+    }
+
+    public int size() {
+        return terms.size();
+    }
+
+    /** Term bytes for {@code id}; the returned ref points into shared storage and must not be modified. */
+    public BytesRef term(int id, BytesRef scratch) {
+        return terms.get(id, scratch);
+    }
+
+    public int freq(int id) {
+        return freqs[id];
+    }
+
+    public boolean contains(BytesRef term) {
+        return terms.find(term) >= 0;
+    }
+
+    // UTF-16 length of a UTF-8 term, without decoding it
+    private static int charLength(BytesRef term) {
+        int len = 0;
+        for (int i = term.offset, end = term.offset + term.length; i < end; i++) {
+            int b = term.bytes[i] & 0xFF;
+            if (b < 0x80 || b >= 0xC0) len += b >= 0xF0 ? 2 : 1;
+        }
+        return len;
+    }
+}
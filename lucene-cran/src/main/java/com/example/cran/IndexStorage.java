@@ -0,0 +1,54 @@
+package com.example.cran;
+
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Where an index lives while it is searched; chosen with -Dcran.storage=fs|mmap|ram.
+ * FS is Lucene's default for the platform, MMAP maps every file and touches all pages
+ * up front, RAM holds a heap copy (Main builds it straight from the parsed documents,
+ * so the disk is never involved).
+ */
+public enum IndexStorage {
+    FS,
+    MMAP,
+    RAM;
+
+    public static IndexStorage fromSystemProperties() {
+        return valueOf(System.getProperty("cran.storage", "fs").toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Opens the index at {@code indexPath}. For RAM that is a copy of the on-disk index
+     * (empty if there is none); writes to it never reach the disk.
+     */
+    public Directory open(Path indexPath) throws IOException {
+        switch (this) {
+            case MMAP:
+                MMapDirectory mmap = new MMapDirectory(indexPath);
+                mmap.setPreload(MMapDirectory.ALL_FILES);
+                return mmap;
+            case RAM:
+                Directory ram = new ByteBuffersDirectory();
+                if (Files.isDirectory(indexPath)) {
+                    try (Directory fs = FSDirectory.open(indexPath)) {
+                        for (String file : fs.listAll()) {
+                            if (file.equals("write.lock")) continue;
+                            ram.copyFrom(fs, file, file, IOContext.READONCE);
+                        }
+                    }
+                }
+                return ram;
+            default:
+                return FSDirectory.open(indexPath);
+        }
+    }
+}
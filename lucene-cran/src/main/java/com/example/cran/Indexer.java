@@ -2,44 +2,458 @@ package com.example.cran;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.FilterLeafReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 public class Indexer {
+    // stored text fields that also keep per-document term vectors (used by Rocchio feedback)
+    private static final FieldType TEXT_WITH_VECTORS = new FieldType(TextField.TYPE_STORED);
+    static {
+        TEXT_WITH_VECTORS.setStoreTermVectors(true);
+        TEXT_WITH_VECTORS.freeze();
+    }
+
+    /** Writer and pipeline tuning; defaults match IndexWriterConfig and can be set with -Dcran.* properties. */
+    public static class Options {
+        public int threads = Integer.getInteger("cran.indexThreads", 1);       // addDocument workers
+        public int queueSize = Integer.getInteger("cran.indexQueue", 1024);    // parsed docs waiting for a worker
+        public double ramBufferMB = doubleProperty("cran.ramBufferMB", IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+        public double segmentsPerTier = doubleProperty("cran.segmentsPerTier", 10.0);
+        public double maxMergedSegmentMB = doubleProperty("cran.maxMergedSegmentMB", 5 * 1024.0);
+        public int mergeThreads = Integer.getInteger("cran.mergeThreads", 0);  // 0 = let the scheduler decide
+
+        private static double doubleProperty(String name, double def) {
+            String v = System.getProperty(name);
+            return v == null ? def : Double.parseDouble(v);
+        }
+    }
+
+    // bump when the document layout changes; a different schema forces a full rebuild
+    private static final int SCHEMA_VERSION = 1;
+    private static final String SCHEMA_KEY = "cran.schema";
+    private static final String SOURCE_KEY = "cran.source.sha256";
+    private static final String BUILD_KEY = "cran.build"; // the Plan that wrote the commit, in lower case
+    private static final String HASH_FIELD = "hash";
+
     private final Path indexPath;
+    private final Directory directory; // set instead of indexPath for caller-owned directories
+    private final boolean termVectors;
+    private final Options options;
+    private final String analyzerName;
 
     public Indexer(Path indexPath) {
+        this(indexPath, false);
+    }
+
+    public Indexer(Path indexPath, boolean termVectors) {
+        this(indexPath, termVectors, new Options());
+    }
+
+    public Indexer(Path indexPath, boolean termVectors, Options options) {
+        this(indexPath, termVectors, options, "english");
+    }
+
+    /** Analyzes title and content with {@link Analyzers#forIndexing(String) analyzerName}, e.g. for a shadow index. */
+    public Indexer(Path indexPath, boolean termVectors, Options options, String analyzerName) {
+        this(indexPath, null, termVectors, options, analyzerName);
+    }
+
+    /** Indexes into {@code directory}, e.g. a ByteBuffersDirectory; the caller keeps ownership and closes it. */
+    public Indexer(Directory directory, boolean termVectors, Options options) {
+        this(directory, termVectors, options, "english");
+    }
+
+    public Indexer(Directory directory, boolean termVectors, Options options, String analyzerName) {
+        this(null, directory, termVectors, options, analyzerName);
+    }
+
+    private Indexer(Path indexPath, Directory directory, boolean termVectors, Options options, String analyzerName) {
         this.indexPath = indexPath;
+        this.directory = directory;
+        this.termVectors = termVectors;
+        this.options = options;
+        this.analyzerName = analyzerName.toLowerCase(Locale.ROOT);
+    }
+
+    public String analyzerName() {
+        return analyzerName;
+    }
+
+    public void index(Iterable<CranfieldParser.CranDoc> docs) throws Exception {
+        index(docs.iterator());
+    }
+
+    /**
+     * Rebuilds the index from documents as they are produced, e.g. from {@link CranfieldParser#streamDocs()}.
+     * With more than one thread the calling thread only parses: documents go through a
+     * bounded queue to workers that build and add them to the shared IndexWriter, so doc
+     * ids no longer follow file order.
+     */
+    public void index(Iterator<CranfieldParser.CranDoc> docs) throws Exception {
+        rebuild(docs, null);
+    }
+
+    /**
+     * Brings the index in line with the parser's collection. Nothing is written when the
+     * source file and index schema match the last commit; a schema change (or a missing
+     * index) rebuilds everything, otherwise only added, changed and removed documents
+     * are written, keyed on their "id" term.
+     * @return true if the index was modified
+     */
+    public boolean sync(CranfieldParser parser) throws Exception {
+        File source = parser.docsFile();
+        String sourceHash = sha256(source.toPath());
+
+        Plan plan = plan(sourceHash);
+        if (plan == Plan.SKIP) {
+            System.out.println("Index is up to date with " + source.getName() + ", skipping indexing");
+            return false;
+        }
+
+        try (Stream<CranfieldParser.CranDoc> docs = parser.streamDocs()) {
+            apply(plan, docs.iterator(), sourceHash);
+        }
+        return true;
+    }
+
+    /** What {@link #sync} has to do to bring the index in line with a source file. */
+    enum Plan { SKIP, UPDATE, REBUILD }
+
+    Plan plan(String sourceHash) throws IOException {
+        Map<String, String> last = null;
+        try (Directory dir = openDirectory()) {
+            if (DirectoryReader.indexExists(dir)) last = SegmentInfos.readLatestCommit(dir).getUserData();
+        }
+        boolean sameSchema = last != null && schema().equals(last.get(SCHEMA_KEY));
+        if (!sameSchema) return Plan.REBUILD;
+        return sourceHash.equals(last.get(SOURCE_KEY)) ? Plan.SKIP : Plan.UPDATE;
+    }
+
+    void apply(Plan plan, Iterator<CranfieldParser.CranDoc> docs, String sourceHash) throws Exception {
+        if (plan == Plan.UPDATE) {
+            update(docs, sourceHash);
+        } else if (plan == Plan.REBUILD) {
+            rebuild(docs, sourceHash);
+        }
+    }
+
+    /**
+     * Opens a writer on this index that keeps accepting documents while the index is searched.
+     * Readers are reopened at most {@code maxStaleSec} after a write, or within
+     * {@code minStaleSec} for a caller waiting on it. See {@link NrtIndex}.
+     */
+    public NrtIndex openNrt(double maxStaleSec, double minStaleSec) throws IOException {
+        Directory dir = openDirectory();
+        try {
+            IndexWriter w = new IndexWriter(dir, newConfig(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+            // no source hash: the index no longer matches any source file, so the next sync compares every document.
+            // Set right away so near-real-time readers don't carry the last rebuild's fingerprint either.
+            Map<String, String> data = commitData(null, null);
+            w.setLiveCommitData(data.entrySet());
+            return new NrtIndex(dir, w, termVectors, data, maxStaleSec, minStaleSec);
+        } catch (IOException | RuntimeException e) {
+            dir.close();
+            throw e;
+        }
     }
 
-    public void index(List<CranfieldParser.CranDoc> docs) throws Exception {
-        Directory dir = FSDirectory.open(indexPath);
-        Analyzer analyzer = new EnglishAnalyzer(); 
+    /**
+     * What the index a reader was opened on contains. An index freshly rebuilt from a source
+     * file, with nothing deleted since, is identified by its schema, source file hash and size,
+     * so identical rebuilds match. Anything else, e.g. an index brought to the same source by an
+     * update, still counts replaced and deleted documents in its term statistics and ranks
+     * differently; it is identified by its exact segments.
+     */
+    static String fingerprint(DirectoryReader reader) throws IOException {
+        Map<String, String> data = reader.getIndexCommit().getUserData();
+        if (Plan.REBUILD.name().toLowerCase(Locale.ROOT).equals(data.get(BUILD_KEY))
+                && data.containsKey(SCHEMA_KEY) && data.containsKey(SOURCE_KEY) && reader.numDeletedDocs() == 0) {
+            return data.get(SCHEMA_KEY) + "@" + data.get(SOURCE_KEY) + "#" + reader.maxDoc();
+        }
+        StringBuilder sb = new StringBuilder("segments");
+        for (LeafReaderContext ctx : reader.leaves()) {
+            SegmentCommitInfo info = ((SegmentReader) FilterLeafReader.unwrap(ctx.reader())).getSegmentInfo();
+            sb.append('|').append(StringHelper.idToString(info.info.getId()))
+                    .append(':').append(ctx.reader().maxDoc())
+                    .append(':').append(ctx.reader().numDeletedDocs());
+        }
+        return sb.toString();
+    }
 
-        IndexWriterConfig cfg = new IndexWriterConfig(analyzer);
-        cfg.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    /** Bytes of all files in the index. */
+    public long sizeInBytes() throws IOException {
+        long size = 0;
+        try (Directory dir = openDirectory()) {
+            for (String file : dir.listAll()) size += dir.fileLength(file);
+        }
+        return size;
+    }
 
-        try (IndexWriter w = new IndexWriter(dir, cfg)) {
-            for (CranfieldParser.CranDoc d : docs) {
-                Document luc = new Document();
+    private void rebuild(Iterator<CranfieldParser.CranDoc> docs, String sourceHash) throws Exception {
+        long start = System.nanoTime();
+        int count;
+        try (Directory dir = openDirectory();
+             IndexWriter w = new IndexWriter(dir, newConfig(IndexWriterConfig.OpenMode.CREATE))) {
+            count = options.threads <= 1 ? addAll(w, docs) : addAllConcurrently(w, docs);
+            w.setLiveCommitData(commitData(sourceHash, Plan.REBUILD).entrySet());
+            w.commit();
+        }
 
-                luc.add(new StringField("id", d.docno, Field.Store.YES));
-                luc.add(new TextField("title", d.title, Field.Store.YES));
-                luc.add(new TextField("author", d.author, Field.Store.YES));
-                luc.add(new TextField("content", d.body, Field.Store.YES));
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "Indexed %d docs (%s) in %.2f s (%.0f docs/sec, %d threads)%n",
+                count, analyzerName, secs, count / secs, Math.max(1, options.threads));
+    }
 
-                w.addDocument(luc);
+    // Compares every source document against the content hash stored with it
+    private void update(Iterator<CranfieldParser.CranDoc> docs, String sourceHash) throws Exception {
+        long start = System.nanoTime();
+        int added = 0, changed = 0, unchanged = 0;
+        try (Directory dir = openDirectory();
+             IndexWriter w = new IndexWriter(dir, newConfig(IndexWriterConfig.OpenMode.APPEND))) {
+            Map<String, BytesRef> indexed = indexedHashes(dir);
+            while (docs.hasNext()) {
+                CranfieldParser.CranDoc d = docs.next();
+                BytesRef old = indexed.remove(d.docno);
+                BytesRef hash = contentHash(d);
+                if (hash.equals(old)) {
+                    unchanged++;
+                    continue;
+                }
+                w.updateDocument(new Term("id", d.docno), toDocument(d, termVectors, hash));
+                if (old == null) added++; else changed++;
+            }
+            // whatever is left no longer exists in the source
+            for (String docno : indexed.keySet()) {
+                w.deleteDocuments(new Term("id", docno));
             }
+            w.setLiveCommitData(commitData(sourceHash, Plan.UPDATE).entrySet());
             w.commit();
+
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Updated index in " + ms + " ms: " + added + " added, " + changed + " changed, "
+                    + indexed.size() + " deleted, " + unchanged + " unchanged");
+        }
+    }
+
+    // closing what this returns never closes a caller-owned directory
+    private Directory openDirectory() throws IOException {
+        if (directory == null) return FSDirectory.open(indexPath);
+        return new FilterDirectory(directory) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    // docno -> content hash of every live document
+    private static Map<String, BytesRef> indexedHashes(Directory dir) throws IOException {
+        Map<String, BytesRef> hashes = new HashMap<>();
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            for (LeafReaderContext ctx : reader.leaves()) {
+                LeafReader leaf = ctx.reader();
+                Bits live = leaf.getLiveDocs();
+                SortedDocValues ids = DocValues.getSorted(leaf, "id");
+                BinaryDocValues hash = DocValues.getBinary(leaf, HASH_FIELD);
+                for (int doc = ids.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = ids.nextDoc()) {
+                    if (live != null && !live.get(doc)) continue;
+                    String docno = ids.lookupOrd(ids.ordValue()).utf8ToString();
+                    hashes.put(docno, hash.advanceExact(doc) ? BytesRef.deepCopyOf(hash.binaryValue()) : new BytesRef());
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private String schema() {
+        // english indexes keep the schema they had before analyzer variants existed
+        return SCHEMA_VERSION + (termVectors ? "+tv" : "") + (analyzerName.equals("english") ? "" : "+" + Analyzers.version(analyzerName));
+    }
+
+    private Map<String, String> commitData(String sourceHash, Plan build) {
+        Map<String, String> data = new HashMap<>();
+        data.put(SCHEMA_KEY, schema());
+        if (sourceHash != null) data.put(SOURCE_KEY, sourceHash);
+        if (build != null) data.put(BUILD_KEY, build.name().toLowerCase(Locale.ROOT));
+        return data;
+    }
+
+    private IndexWriterConfig newConfig(IndexWriterConfig.OpenMode mode) {
+        IndexWriterConfig cfg = new IndexWriterConfig(analyzer());
+        cfg.setOpenMode(mode);
+        cfg.setRAMBufferSizeMB(options.ramBufferMB);
+
+        TieredMergePolicy mp = new TieredMergePolicy();
+        mp.setSegmentsPerTier(options.segmentsPerTier);
+        mp.setMaxMergedSegmentMB(options.maxMergedSegmentMB);
+        cfg.setMergePolicy(mp);
+
+        ConcurrentMergeScheduler cms = new ConcurrentMergeScheduler();
+        if (options.mergeThreads > 0) {
+            cms.setMaxMergesAndThreads(options.mergeThreads + 5, options.mergeThreads);
+        }
+        cfg.setMergeScheduler(cms);
+        return cfg;
+    }
+
+    // title and content get the variant's analyzer; author is always analyzed the English way
+    private Analyzer analyzer() {
+        if (analyzerName.equals("english")) return new EnglishAnalyzer();
+        Analyzer variant = Analyzers.forIndexing(analyzerName);
+        return new PerFieldAnalyzerWrapper(new EnglishAnalyzer(), Map.of("title", variant, "content", variant));
+    }
+
+    private int addAll(IndexWriter w, Iterator<CranfieldParser.CranDoc> docs) throws Exception {
+        int count = 0;
+        while (docs.hasNext()) {
+            w.addDocument(toDocument(docs.next(), termVectors));
+            count++;
+        }
+        return count;
+    }
+
+    private static final CranfieldParser.CranDoc END = new CranfieldParser.CranDoc();
+
+    private int addAllConcurrently(IndexWriter w, Iterator<CranfieldParser.CranDoc> docs) throws Exception {
+        int threads = options.threads;
+        BlockingQueue<CranfieldParser.CranDoc> queue = new ArrayBlockingQueue<>(Math.max(threads, options.queueSize));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.execute(() -> {
+                    try {
+                        for (CranfieldParser.CranDoc d = queue.take(); d != END; d = queue.take()) {
+                            // after a failure keep draining so the parser never blocks on a full queue
+                            if (failure.get() != null) continue;
+                            try {
+                                w.addDocument(toDocument(d, termVectors));
+                            } catch (Throwable t) {
+                                failure.compareAndSet(null, t);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            int count = 0;
+            try {
+                while (docs.hasNext() && failure.get() == null) {
+                    queue.put(docs.next());
+                    count++;
+                }
+            } finally {
+                for (int i = 0; i < threads; i++) queue.put(END);
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+            Throwable t = failure.get();
+            if (t instanceof Exception e) throw e;
+            if (t instanceof Error e) throw e;
+            if (t != null) throw new IllegalStateException(t);
+            return count;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    static Document toDocument(CranfieldParser.CranDoc d, boolean termVectors) {
+        return toDocument(d, termVectors, contentHash(d));
+    }
+
+    static Document toDocument(CranfieldParser.CranDoc d, boolean termVectors, BytesRef hash) {
+        Document luc = new Document();
+        FieldType text = termVectors ? TEXT_WITH_VECTORS : TextField.TYPE_STORED;
+
+        luc.add(new StringField("id", d.docno, Field.Store.YES));
+        // docno as doc values too, so result writers can resolve it without loading stored fields
+        luc.add(new SortedDocValuesField("id", new BytesRef(d.docno)));
+        luc.add(new Field("title", d.title, text));
+        luc.add(new TextField("author", d.author, Field.Store.YES));
+        luc.add(new Field("content", d.body, text));
+        // lets incremental runs tell changed documents apart
+        luc.add(new BinaryDocValuesField(HASH_FIELD, hash));
+
+        return luc;
+    }
+
+    /** SHA-256 over everything a document is built from. */
+    static BytesRef contentHash(CranfieldParser.CranDoc d) {
+        MessageDigest md = sha256();
+        for (String part : new String[] {d.docno, d.title, d.author, d.biblio, d.body}) {
+            md.update(part.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+        }
+        return new BytesRef(md.digest());
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest md = sha256();
+        byte[] buf = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE ships SHA-256
         }
     }
-}
\ No newline at end of file
+}
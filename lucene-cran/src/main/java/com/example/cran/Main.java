@@ -1,9 +1,20 @@
 package com.example.cran;
 
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
-import java.io.*;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 public class Main {
     public static void main(String[] args) throws Exception {
@@ -12,156 +23,250 @@ public class Main {
         Path indexPath = Paths.get("target/index_cran");
         String cranFilePath = "src/main/resources/cran/cran.all.1400";
         String queriesFile = "src/main/resources/cran/cran.qry";
-        String qrelsFile = "src/main/resources/cran/cranqrel";
         String resultsDir = "src/main/results";
 
-        String outputFileEnglish = "target/cran_results_english.txt";
-        String outputFileNGram = "target/cran_results_ngram.txt";
-        String outputFileSynonym = "target/cran_results_synonym.txt";
+        // TREC run files are optional now that evaluation happens in memory
+        String runDir = Boolean.getBoolean("cran.writeRuns") ? "target" : null;
 
-        // Indexing
+        // Indexing: the english index plus a shadow index per other analyzer the sweep searches
+        // with, all written from one parse of the collection
         CranfieldParser parser = new CranfieldParser(Paths.get("src/main/resources/cran").toFile());
-        List<CranfieldParser.CranDoc> docs = parser.parseDocs();
-        Indexer indexer = new Indexer(indexPath);
-        indexer.index(docs);
-        System.out.println(" Indexing completed. Index stored at: " + indexPath);
-
-        // -----------------------------------------------------------
-        // Baseline - EnglishAnalyzer
-        // -----------------------------------------------------------
-        Searcher baselineSearcher = new Searcher(indexPath);
-        baselineSearcher.search(queriesFile, outputFileEnglish, "english"); // english, standard, whitespace.
-        System.out.println("\n🔸 Evaluating Baseline English Analyzer...");
-        runTrecEval(qrelsFile, outputFileEnglish, resultsDir, "english");
-
-        // -----------------------------------------------------------
-        // N-Gram Analyzer
-        // -----------------------------------------------------------
-        NGramSearcher ngramSearcher = new NGramSearcher(indexPath);
-        ngramSearcher.search(queriesFile, outputFileNGram);
-        System.out.println("\n🔸 Evaluating N-Gram Analyzer...");
-        runTrecEval(qrelsFile, outputFileNGram, resultsDir, "ngram");
-
-        // -----------------------------------------------------------
-        // Synonym Analyzer
-        // -----------------------------------------------------------
-        SynonymSearcher synonymSearcher = new SynonymSearcher(indexPath);
-        synonymSearcher.search(queriesFile, outputFileSynonym);
-        System.out.println("\n🔸 Evaluating Synonym Analyzer...");
-        runTrecEval(qrelsFile, outputFileSynonym, resultsDir, "synonym");
-
-        // -----------------------------------------------------------
-        // BM25 Parameter Tuning
-        // -----------------------------------------------------------
-        float[] k1Values = {0.8f, 1.2f, 1.5f, 2.0f};
-        float[] bValues = {0.4f, 0.6f, 0.75f};
-
-        for (float k1 : k1Values) {
-            for (float b : bValues) {
-                String outputFileBM25 = "target/cran_results_bm25_" + k1 + "_" + b + ".txt";
-                BM25TunedSearcher tunedSearcher = new BM25TunedSearcher(indexPath, k1, b);
-                tunedSearcher.search(queriesFile, outputFileBM25);
-                System.out.println("\n🔸 Evaluating BM25 tuned (k1=" + k1 + ", b=" + b + ")...");
-                runTrecEval(qrelsFile, outputFileBM25, resultsDir, "bm25_" + k1 + "_" + b);
+        IndexStorage storage = IndexStorage.fromSystemProperties(); // -Dcran.storage=fs|mmap|ram
+        String[] analyzers = ShadowIndexes.ANALYZERS;
+        Directory[] dirs = new Directory[analyzers.length];
+        List<Indexer> indexers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < analyzers.length; i++) {
+            boolean termVectors = i == 0; // term vectors for Rocchio feedback
+            if (storage == IndexStorage.RAM) {
+                // built straight from the parsed docs; the disk index is neither read nor written
+                dirs[i] = new ByteBuffersDirectory();
+                indexers.add(new Indexer(dirs[i], termVectors, new Indexer.Options(), analyzers[i]));
+            } else {
+                indexers.add(new Indexer(ShadowIndexes.pathFor(indexPath, analyzers[i]), termVectors, new Indexer.Options(), analyzers[i]));
             }
         }
+        // Only re-indexes what changed since the last run (nothing, if cran.all.1400 is the same)
+        ShadowIndexes.sync(parser, indexers);
+        if (storage != IndexStorage.RAM) {
+            for (int i = 0; i < analyzers.length; i++) dirs[i] = storage.open(ShadowIndexes.pathFor(indexPath, analyzers[i]));
+            System.out.println(" Index ready at: " + indexPath);
+        } else {
+            System.out.println(" Index ready in memory");
+        }
+        System.out.printf(Locale.ROOT, " Storage %s, index ready after %.0f ms%n", storage, (System.nanoTime() - start) / 1e6);
 
-        // -----------------------------------------------------------
-        // Field Boosting (Title vs Body)
-        // -----------------------------------------------------------
-        float[] titleBoosts = {1.5f, 2.0f, 3.0f};
-        float[] bodyBoosts = {1.0f};
-
-        for (float tBoost : titleBoosts) {
-            for (float bBoost : bodyBoosts) {
-                String outputFileBoost = "target/cran_results_boost_t" + tBoost + "_b" + bBoost + ".txt";
-                BoostedFieldSearcher boostedSearcher = new BoostedFieldSearcher(indexPath, tBoost, bBoost);
-                boostedSearcher.search(queriesFile, outputFileBoost);
-                System.out.println("\n🔸 Evaluating Field Boosting (title=" + tBoost + ", body=" + bBoost + ")...");
-                runTrecEval(qrelsFile, outputFileBoost, resultsDir, "boost_t" + tBoost + "_b" + bBoost);
+        // Optionally the english index split into shards too, searched by fan-out (-Dcran.shards=N)
+        int shardCount = Integer.getInteger("cran.shards", 0);
+        ShardedIndex.Partition partition = ShardedIndex.Partition.valueOf(
+                System.getProperty("cran.partition", "hash").toUpperCase(Locale.ROOT)); // hash | round_robin
+        Directory[] shardDirs = new Directory[shardCount];
+        List<Indexer> shardIndexers = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            if (storage == IndexStorage.RAM) {
+                shardDirs[i] = new ByteBuffersDirectory();
+                shardIndexers.add(new Indexer(shardDirs[i], false, new Indexer.Options()));
+            } else {
+                shardIndexers.add(new Indexer(ShardedIndex.shardPath(indexPath, partition, shardCount, i), false));
             }
         }
+        if (shardCount > 0) {
+            ShardedIndex.sync(parser, shardIndexers, partition);
+            if (storage != IndexStorage.RAM) {
+                for (int i = 0; i < shardCount; i++) shardDirs[i] = storage.open(ShardedIndex.shardPath(indexPath, partition, shardCount, i));
+            }
+        }
+
+        // Qrels are loaded once; every configuration is evaluated in memory
+        TrecEvaluator evaluator = new TrecEvaluator(parser);
+
+        // All configurations below share one reader per index and run concurrently
+        int threads = Integer.getInteger("cran.sweepThreads", Runtime.getRuntime().availableProcessors());
+
+        try (ShardedIndex shards = shardCount > 0 ? new ShardedIndex(shardDirs) : null;
+             ExperimentSweep sweep = new ExperimentSweep(dirs[0])) {
+            for (int i = 1; i < analyzers.length; i++) sweep.addIndex(analyzers[i], dirs[i]);
+
+            // configurations already run against identical indexes and queries are replayed
+            // from -Dcran.runCache instead of searched again
+            sweep.setRunCache(RunCache.fromSystemProperties(queriesFile));
+            // -Dcran.binaryRuns=true writes -Dcran.writeRuns files in RunFile's binary format
+            sweep.setBinaryRuns(Boolean.getBoolean("cran.binaryRuns"));
+
+            // -Dcran.tune=true replaces the parameter grids below with successive halving over
+            // continuous ranges; only each family's winner is evaluated in full by the sweep
+            Tuner tuner = Boolean.getBoolean("cran.tune")
+                    ? Tuner.fromSystemProperties(evaluator, sweep.reader(), queriesFile, threads) : null;
+            QuerySource queries = QuerySource.load(queriesFile);
+
+            // -----------------------------------------------------------
+            // Baseline - EnglishAnalyzer
+            // -----------------------------------------------------------
+            // the searchers that don't set a similarity rank with Lucene's default BM25
+            Similarity bm25 = IndexSearcher.getDefaultSimilarity();
+
+            sweep.add("english", bm25,
+                    (reader, sink) -> new Searcher(indexPath).search(reader, queriesFile, sink, "english"));
+
+            // -----------------------------------------------------------
+            // Standard and Whitespace Analyzers, each on its own shadow index
+            // -----------------------------------------------------------
+            for (String analyzer : new String[] {"standard", "whitespace"}) {
+                sweep.add(analyzer, analyzer, bm25,
+                        (reader, sink) -> new Searcher(indexPath).search(reader, queriesFile, sink, analyzer));
+            }
+
+            // -----------------------------------------------------------
+            // N-Gram Analyzer
+            // -----------------------------------------------------------
+            sweep.add("ngram", "ngram", bm25,
+                    (reader, sink) -> new NGramSearcher(indexPath).search(reader, queriesFile, sink));
+
+            // -----------------------------------------------------------
+            // Synonym Analyzer
+            // -----------------------------------------------------------
+            sweep.add("synonym", "synonym", bm25,
+                    (reader, sink) -> new SynonymSearcher(indexPath).search(reader, queriesFile, sink));
+
+            // -----------------------------------------------------------
+            // Baseline over shards (same scores, global statistics)
+            // -----------------------------------------------------------
+            if (shards != null) {
+                sweep.addIndex("sharded", shards.reader());
+                sweep.add("english_" + partition.name().toLowerCase(Locale.ROOT) + shardCount, "sharded", bm25,
+                        (reader, sink) -> shards.search(queriesFile, sink));
+            }
 
-        // -----------------------------------------------------------
-        // Rocchio PRF (Pseudo Relevance Feedback)
-        // -----------------------------------------------------------
-        float[] alphas = {1.0f};
-        float[] betas  = {0.5f, 0.75f};
-        int[] fbDocs   = {5, 10};
-        int[] expTerms = {10, 15};
-
-        for (float a : alphas) {
-            for (float b : betas) {
-                for (int d : fbDocs) {
-                    for (int t : expTerms) {
-                        String tag = "rocchio_a" + a + "_b" + b + "_d" + d + "_t" + t;
-                        String out = "target/cran_results_" + tag + ".txt";
-                        RocchioSearcher roc = new RocchioSearcher(indexPath, a, b, d, t);
-                        roc.search(queriesFile, out);
-                        System.out.println("\n🔸 Evaluating Rocchio (" + tag + ")...");
-                        runTrecEval(qrelsFile, out, resultsDir, tag);
+            // -----------------------------------------------------------
+            // BM25 Parameter Tuning
+            // -----------------------------------------------------------
+            if (tuner != null) {
+                Map<Integer, Query> content = queries.parsed("english", "content");
+                Tuner.Result best = tuner.tune("bm25", List.of(Tuner.Param.real("k1", 0.5, 2.5), Tuner.Param.real("b", 0.2, 1.0)), x -> {
+                    IndexSearcher s = new IndexSearcher(sweep.reader());
+                    s.setSimilarity(new BM25Similarity((float) x[0], (float) x[1]));
+                    return qid -> TopKSearch.shared().search(s, content.get(qid), 1000).scoreDocs;
+                });
+                BM25TunedSearcher tuned = new BM25TunedSearcher(indexPath, best.get("k1"), best.get("b"));
+                sweep.add("bm25_tuned", null, tuned.similarity(), best.describe(),
+                        (reader, sink) -> tuned.search(reader, queriesFile, sink));
+            } else {
+                float[] k1Values = {0.8f, 1.2f, 1.5f, 2.0f};
+                float[] bValues = {0.4f, 0.6f, 0.75f};
+
+                // the whole grid is scored in one pass over the postings
+                int gridSize = k1Values.length * bValues.length;
+                float[] gridK1 = new float[gridSize];
+                float[] gridB = new float[gridSize];
+                String[] gridTags = new String[gridSize];
+                Similarity[] gridSimilarities = new Similarity[gridSize];
+                int g = 0;
+                for (float k1 : k1Values) {
+                    for (float b : bValues) {
+                        gridK1[g] = k1;
+                        gridB[g] = b;
+                        gridSimilarities[g] = new BM25Similarity(k1, b);
+                        gridTags[g++] = "bm25_" + k1 + "_" + b;
                     }
                 }
+                sweep.addGroup(gridTags, gridSimilarities,
+                        (reader, sinks) -> new MultiBM25Searcher(gridK1, gridB).search(reader, queriesFile, sinks));
             }
-        }
 
-        // -----------------------------------------------------------
-        // Title-based Reranking
-        // -----------------------------------------------------------
-        float[] rerankBoosts = {0.5f, 1.0f, 2.0f};
-        int[] rerankTops = {50, 100};
-
-        for (float boost : rerankBoosts) {
-            for (int topN : rerankTops) {
-                String outFile = "target/cran_results_rerank_boost" + boost + "_top" + topN + ".txt";
-                RerankTitleBoostSearcher reranker = new RerankTitleBoostSearcher(indexPath, boost, topN);
-                reranker.search(queriesFile, outFile);
-                System.out.println("\n🔸 Evaluating Title Reranking (boost=" + boost + ", topN=" + topN + ")...");
-                runTrecEval(qrelsFile, outFile, resultsDir, "rerank_b" + boost + "_t" + topN);
+            // -----------------------------------------------------------
+            // Field Boosting (Title vs Body)
+            // -----------------------------------------------------------
+            if (tuner != null) {
+                Map<Integer, Query> content = queries.parsed("english", "content");
+                Map<Integer, Query> title = queries.parsed("english", "title");
+                Tuner.Result best = tuner.tune("boost", List.of(Tuner.Param.real("title", 1.0, 4.0)), x -> {
+                    BoostedFieldSearcher boosted = new BoostedFieldSearcher(indexPath, (float) x[0], 1.0f);
+                    IndexSearcher s = new IndexSearcher(sweep.reader());
+                    BoostedFieldSearcher.configure(s);
+                    return qid -> TopKSearch.shared().search(s, boosted.query(title.get(qid), content.get(qid)), 1000).scoreDocs;
+                });
+                sweep.add("boost_tuned", null, BoostedFieldSearcher.similarity(), best.describe(),
+                        (reader, sink) -> new BoostedFieldSearcher(indexPath, best.get("title"), 1.0f).search(reader, queriesFile, sink));
+            } else {
+                float[] titleBoosts = {1.5f, 2.0f, 3.0f};
+                float[] bodyBoosts = {1.0f};
+
+                for (float tBoost : titleBoosts) {
+                    for (float bBoost : bodyBoosts) {
+                        sweep.add("boost_t" + tBoost + "_b" + bBoost, BoostedFieldSearcher.similarity(),
+                                (reader, sink) -> new BoostedFieldSearcher(indexPath, tBoost, bBoost).search(reader, queriesFile, sink));
+                        // same weights as one BM25F score per term
+                        sweep.add("bm25f_t" + tBoost + "_b" + bBoost, BoostedFieldSearcher.similarity(),
+                                (reader, sink) -> new BoostedFieldSearcher(indexPath, tBoost, bBoost, BoostedFieldSearcher.Mode.COMBINED)
+                                        .search(reader, queriesFile, sink));
+                    }
+                }
             }
-        }
 
-        System.out.println("\nAll evaluations completed. Results saved in: " + resultsDir);
-    }
+            // -----------------------------------------------------------
+            // Rocchio PRF (Pseudo Relevance Feedback)
+            // -----------------------------------------------------------
+            if (tuner != null) {
+                Map<Integer, Query> content = queries.parsed("english", "content");
+                Map<Integer, Set<BytesRef>> terms = queries.terms("english", "content");
+                List<Tuner.Param> space = List.of(Tuner.Param.real("beta", 0.25, 1.0),
+                        Tuner.Param.integer("fbDocs", 3, 20), Tuner.Param.integer("terms", 5, 30));
+                Tuner.Result best = tuner.tune("rocchio", space, x -> {
+                    RocchioSearcher rocchio = new RocchioSearcher(indexPath, 1.0f, (float) x[0], (int) x[1], (int) x[2]);
+                    IndexSearcher s = new IndexSearcher(sweep.reader());
+                    RocchioSearcher.configure(s);
+                    return qid -> rocchio.search(s, content.get(qid), terms.get(qid), StageTimer.NONE);
+                });
+                sweep.add("rocchio_tuned", null, RocchioSearcher.similarity(), best.describe(), (reader, sink) -> new RocchioSearcher(indexPath, 1.0f, best.get("beta"),
+                        (int) best.get("fbDocs"), (int) best.get("terms")).search(reader, queriesFile, sink));
+            } else {
+                float[] alphas = {1.0f};
+                float[] betas  = {0.5f, 0.75f};
+                int[] fbDocs   = {5, 10};
+                int[] expTerms = {10, 15};
 
-    /**
-     * Runs trec_eval on the given results file and saves metrics.
-     */
-    private static void runTrecEval(String qrelsFile, String resultsFile, String resultsDir, String tag) throws IOException, InterruptedException {
-        File dir = new File(resultsDir);
-        if (!dir.exists()) dir.mkdirs();
-
-        String metricsFile = resultsDir + "/metrics_" + tag + ".txt";
-
-        ProcessBuilder pb = new ProcessBuilder(
-                "./trec_eval",
-                "-m", "map",
-                "-m", "gm_map",
-                "-m", "P.5",
-                "-m", "P.10",
-                "-m", "recall.1000",
-                new File(qrelsFile).getAbsolutePath(),
-                new File(resultsFile).getAbsolutePath()
-        );
-
-        pb.directory(new File("trec_eval"));
-        pb.redirectErrorStream(true);
-
-        Process p = pb.start();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-             BufferedWriter writer = new BufferedWriter(new FileWriter(metricsFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println(line);
-                writer.write(line);
-                writer.newLine();
+                for (float a : alphas) {
+                    for (float b : betas) {
+                        for (int d : fbDocs) {
+                            for (int t : expTerms) {
+                                String tag = "rocchio_a" + a + "_b" + b + "_d" + d + "_t" + t;
+                                sweep.add(tag, RocchioSearcher.similarity(),
+                                        (reader, sink) -> new RocchioSearcher(indexPath, a, b, d, t).search(reader, queriesFile, sink));
+                            }
+                        }
+                    }
+                }
+            }
+
+            // -----------------------------------------------------------
+            // Title-based Reranking
+            // -----------------------------------------------------------
+            if (tuner != null) {
+                Map<Integer, Query> content = queries.parsed("english", "content");
+                Map<Integer, Query> title = queries.parsed("english", "title");
+                List<Tuner.Param> space = List.of(Tuner.Param.real("boost", 0.25, 3.0), Tuner.Param.integer("topN", 20, 200));
+                Tuner.Result best = tuner.tune("rerank", space, x -> {
+                    RerankTitleBoostSearcher rerank = new RerankTitleBoostSearcher(indexPath, (float) x[0], (int) x[1]);
+                    IndexSearcher s = new IndexSearcher(sweep.reader());
+                    return qid -> rerank.search(s, queries.texts().get(qid), content.get(qid), title.get(qid), StageTimer.NONE);
+                });
+                sweep.add("rerank_tuned", null, bm25, best.describe(), (reader, sink) -> new RerankTitleBoostSearcher(indexPath, best.get("boost"),
+                        (int) best.get("topN")).search(reader, queriesFile, sink));
+            } else {
+                float[] rerankBoosts = {0.5f, 1.0f, 2.0f};
+                int[] rerankTops = {50, 100};
+
+                for (float boost : rerankBoosts) {
+                    for (int topN : rerankTops) {
+                        sweep.add("rerank_b" + boost + "_t" + topN, bm25,
+                                (reader, sink) -> new RerankTitleBoostSearcher(indexPath, boost, topN).search(reader, queriesFile, sink));
+                    }
+                }
             }
+
+            sweep.run(threads, evaluator, resultsDir, runDir);
         }
 
-        int exitCode = p.waitFor();
-        if (exitCode == 0)
-            System.out.println("Metrics saved to " + metricsFile);
-        else
-            System.err.println("trec_eval failed for " + tag);
+        System.out.println("\nAll evaluations completed. Results saved in: " + resultsDir);
     }
-}
\ No newline at end of file
+}
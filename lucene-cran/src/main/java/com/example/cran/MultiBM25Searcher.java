@@ -0,0 +1,267 @@
+package com.example.cran;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores every query under a whole grid of BM25 (k1, b) settings in one pass:
+ * postings, freqs and norms are read once per query and each setting only adds
+ * arithmetic, instead of one full search per setting.
+ *
+ * Scores are computed the way BM25Similarity and Lucene's disjunction scorers compute
+ * them, so each ranked list matches a BM25TunedSearcher run with the same parameters.
+ * Queries that aren't (boosted) term disjunctions fall back to one regular search
+ * per setting.
+ */
+public class MultiBM25Searcher {
+    // BM25Similarity's decoded document lengths, indexed by the norm byte
+    private static final float[] LENGTH_TABLE = new float[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            LENGTH_TABLE[i] = SmallFloat.byte4ToInt((byte) i);
+        }
+    }
+
+    private final float[] k1;
+    private final float[] b;
+
+    /** Setting i is (k1[i], b[i]). */
+    public MultiBM25Searcher(float[] k1, float[] b) {
+        if (k1.length != b.length) throw new IllegalArgumentException("k1 and b must have the same length");
+        this.k1 = k1.clone();
+        this.b = b.clone();
+    }
+
+    /** Runs the queries and sends the ranked list of setting i to {@code sinks[i]}, in qid order. */
+    public void search(IndexReader reader, String queriesFile, RunSink[] sinks) throws Exception {
+        if (sinks.length != k1.length) throw new IllegalArgumentException("need one sink per (k1, b) setting");
+        QuerySource source = QuerySource.load(queriesFile);
+        StageTimer timer = sinks.length > 0 ? sinks[0].timer() : StageTimer.NONE;
+        Map<Integer, Query> parsed = source.parsed("english", "content", timer);
+
+        try (QueryRunner runner = QueryRunner.fromSystemProperties()) {
+            IndexSearcher searcher = runner.newSearcher(reader);
+            runner.run(source.texts(),
+                    (qid, qtext) -> timer.time(StageTimer.Stage.SEARCH, () -> search(searcher, parsed.get(qid), 1000)), sinks);
+        }
+    }
+
+    /** Top {@code n} hits of {@code q} for every setting, ranked as {@code IndexSearcher.search(q, n)} would. */
+    public ScoreDoc[][] search(IndexSearcher searcher, Query q, int n) throws IOException {
+        Query rewritten = searcher.rewrite(q);
+        List<Leaf> leaves = new ArrayList<>();
+        Node root = Node.build(rewritten, 1f, leaves);
+        if (root == null) return fallback(searcher, rewritten, n);
+
+        IndexReader reader = searcher.getIndexReader();
+        int numHits = Math.min(n, Math.max(1, reader.maxDoc()));
+        int settings = k1.length;
+
+        // per-term weights and per-field length caches, exactly as BM25Similarity.scorer() builds them
+        Map<String, float[][]> caches = new HashMap<>();
+        for (Leaf leaf : leaves) {
+            TermStates states = TermStates.build(searcher.getTopReaderContext(), leaf.term, true);
+            if (states.docFreq() == 0) continue; // matches nothing
+            CollectionStatistics collection = searcher.collectionStatistics(leaf.term.field());
+            TermStatistics stats = searcher.termStatistics(leaf.term, states.docFreq(), states.totalTermFreq());
+            float idf = (float) Math.log(1 + (collection.docCount() - stats.docFreq() + 0.5D) / (stats.docFreq() + 0.5D));
+            leaf.weight = leaf.boost * idf;
+            leaf.caches = caches.computeIfAbsent(leaf.term.field(), f -> lengthCaches(collection));
+        }
+
+        HitQueue[] queues = new HitQueue[settings];
+        ScoreDoc[] tops = new ScoreDoc[settings];
+        for (int p = 0; p < settings; p++) {
+            queues[p] = new HitQueue(numHits, true);
+            tops[p] = queues[p].top();
+        }
+        int totalHits = 0;
+
+        int numLeaves = leaves.size();
+        PostingsEnum[] postings = new PostingsEnum[numLeaves];
+        NumericDocValues[] norms = new NumericDocValues[numLeaves];
+        for (LeafReaderContext ctx : reader.leaves()) {
+            LeafReader lr = ctx.reader();
+            Bits live = lr.getLiveDocs();
+            for (int t = 0; t < numLeaves; t++) {
+                Leaf leaf = leaves.get(t);
+                postings[t] = leaf.caches == null ? null : lr.postings(leaf.term, PostingsEnum.FREQS);
+                norms[t] = lr.getNormValues(leaf.term.field());
+                leaf.doc = postings[t] == null ? DocIdSetIterator.NO_MORE_DOCS : postings[t].nextDoc();
+            }
+
+            while (true) {
+                int doc = DocIdSetIterator.NO_MORE_DOCS;
+                for (int t = 0; t < numLeaves; t++) {
+                    doc = Math.min(doc, leaves.get(t).doc);
+                }
+                if (doc == DocIdSetIterator.NO_MORE_DOCS) break;
+
+                for (int t = 0; t < numLeaves; t++) {
+                    Leaf leaf = leaves.get(t);
+                    leaf.matches = leaf.doc == doc;
+                    if (!leaf.matches) continue;
+                    leaf.freq = postings[t].freq();
+                    // fields without norms score as if every norm were 1
+                    leaf.norm = norms[t] != null && norms[t].advanceExact(doc) ? ((byte) norms[t].longValue()) & 0xFF : 1;
+                }
+
+                if (live == null || live.get(doc)) {
+                    totalHits++;
+                    int globalDoc = ctx.docBase + doc;
+                    for (int p = 0; p < settings; p++) {
+                        float score = root.score(p);
+                        // docs arrive in order, so a tie never displaces an earlier doc
+                        if (score > tops[p].score) {
+                            tops[p].doc = globalDoc;
+                            tops[p].score = score;
+                            tops[p] = queues[p].updateTop();
+                        }
+                    }
+                }
+
+                for (int t = 0; t < numLeaves; t++) {
+                    Leaf leaf = leaves.get(t);
+                    if (leaf.matches) leaf.doc = postings[t].nextDoc();
+                }
+            }
+        }
+
+        ScoreDoc[][] results = new ScoreDoc[settings][];
+        for (int p = 0; p < settings; p++) {
+            results[p] = drain(queues[p], Math.min(totalHits, numHits));
+        }
+        return results;
+    }
+
+    private float[][] lengthCaches(CollectionStatistics collection) {
+        float avgdl = (float) (collection.sumTotalTermFreq() / (double) collection.docCount());
+        float[][] caches = new float[k1.length][256];
+        for (int p = 0; p < k1.length; p++) {
+            for (int i = 0; i < 256; i++) {
+                caches[p][i] = 1f / (k1[p] * ((1 - b[p]) + b[p] * LENGTH_TABLE[i] / avgdl));
+            }
+        }
+        return caches;
+    }
+
+    // the sentinel-filled queue holds howMany real hits; pop the rest and read it back to front
+    private static ScoreDoc[] drain(HitQueue pq, int howMany) {
+        for (int i = pq.size() - howMany; i > 0; i--) pq.pop();
+        ScoreDoc[] hits = new ScoreDoc[howMany];
+        for (int i = howMany - 1; i >= 0; i--) hits[i] = pq.pop();
+        return hits;
+    }
+
+    private ScoreDoc[][] fallback(IndexSearcher searcher, Query q, int n) throws IOException {
+        ScoreDoc[][] results = new ScoreDoc[k1.length][];
+        for (int p = 0; p < k1.length; p++) {
+            IndexSearcher s = new IndexSearcher(searcher.getIndexReader());
+            s.setSimilarity(new BM25Similarity(k1[p], b[p]));
+            results[p] = TopKSearch.shared().search(s, q, n).scoreDocs;
+        }
+        return results;
+    }
+
+    // A query is a tree of sums (pure SHOULD boolean queries) over boosted terms
+    private abstract static class Node {
+        abstract boolean matches();
+
+        abstract float score(int setting);
+
+        static Node build(Query q, float boost, List<Leaf> leaves) {
+            if (q instanceof BoostQuery) {
+                BoostQuery bq = (BoostQuery) q;
+                return build(bq.getQuery(), bq.getBoost() * boost, leaves);
+            }
+            if (q instanceof TermQuery) {
+                Leaf leaf = new Leaf(((TermQuery) q).getTerm(), boost);
+                leaves.add(leaf);
+                return leaf;
+            }
+            if (q instanceof BooleanQuery) {
+                BooleanQuery bq = (BooleanQuery) q;
+                if (bq.getMinimumNumberShouldMatch() != 0) return null;
+                List<BooleanClause> clauses = bq.clauses();
+                Node[] children = new Node[clauses.size()];
+                for (int i = 0; i < children.length; i++) {
+                    BooleanClause c = clauses.get(i);
+                    if (c.getOccur() != BooleanClause.Occur.SHOULD) return null;
+                    children[i] = build(c.getQuery(), boost, leaves);
+                    if (children[i] == null) return null;
+                }
+                return new Sum(children);
+            }
+            return null;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final Term term;
+        final float boost;
+        float weight;
+        float[][] caches; // null when the term matches nothing
+
+        int doc;
+        boolean matches;
+        int freq;
+        int norm;
+
+        Leaf(Term term, float boost) {
+            this.term = term;
+            this.boost = boost;
+        }
+
+        @Override
+        boolean matches() {
+            return matches;
+        }
+
+        // BM25Similarity's weight - weight / (1 + freq * 1/norm)
+        @Override
+        float score(int setting) {
+            return weight - weight / (1f + freq * caches[setting][norm]);
+        }
+    }
+
+    private static final class Sum extends Node {
+        final Node[] children;
+
+        Sum(Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean matches() {
+            for (Node c : children) {
+                if (c.matches()) return true;
+            }
+            return false;
+        }
+
+        // disjunction scorers add their matching clauses in double precision
+        @Override
+        float score(int setting) {
+            double sum = 0;
+            for (Node c : children) {
+                if (c.matches()) sum += c.score(setting);
+            }
+            return (float) sum;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.cran;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A Cranfield index that takes new and updated documents while it is being searched
+ * (near-real-time): searchers come from {@link #manager()}, whose readers are opened
+ * from the writer itself, so new documents become visible without a commit.
+ *
+ * A background thread reopens them at most maxStaleSec after a write; callers that need
+ * to read their own write wait on the generation {@link #update} returns. Documents are
+ * keyed on their docno, as in {@link Indexer#sync}. Writes are durable only after
+ * {@link #commit} (or close). {@link #stats()} records write (INDEX) and reopen
+ * (REFRESH) latencies.
+ */
+public final class NrtIndex implements Closeable {
+    private final Directory dir;
+    private final IndexWriter writer;
+    private final boolean termVectors;
+    private final Map<String, String> commitData;
+    private final SearcherManager manager;
+    private final ControlledRealTimeReopenThread<IndexSearcher> reopener;
+    private final StageTimer stats = StageTimer.bounded();
+
+    // opened by Indexer#openNrt, which owns the index layout; closes dir and writer with this
+    NrtIndex(Directory dir, IndexWriter writer, boolean termVectors, Map<String, String> commitData,
+             double maxStaleSec, double minStaleSec) throws IOException {
+        this.dir = dir;
+        this.writer = writer;
+        this.termVectors = termVectors;
+        this.commitData = commitData;
+        try {
+            this.manager = new SearcherManager(writer, null);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(writer);
+            throw e;
+        }
+        manager.addListener(new ReferenceManager.RefreshListener() {
+            // refreshes never overlap: the manager serializes them
+            private long start;
+
+            @Override
+            public void beforeRefresh() {
+                start = stats.start();
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (!didRefresh) return;
+                stats.stop(StageTimer.Stage.REFRESH, start);
+                stats.count("refreshes", 1);
+            }
+        });
+
+        this.reopener = new ControlledRealTimeReopenThread<>(writer, manager, maxStaleSec, minStaleSec);
+        reopener.setName("nrt-reopen");
+        reopener.setDaemon(true);
+        reopener.start();
+    }
+
+    /** Searchers over everything written so far, give or take the staleness bound. */
+    public SearcherManager manager() {
+        return manager;
+    }
+
+    public StageTimer stats() {
+        return stats;
+    }
+
+    /** Adds {@code d}, replacing any document with the same docno; returns the write's generation. */
+    public long update(CranfieldParser.CranDoc d) throws IOException {
+        long start = stats.start();
+        long gen = writer.updateDocument(new Term("id", d.docno), Indexer.toDocument(d, termVectors));
+        stats.stop(StageTimer.Stage.INDEX, start);
+        stats.count("docs_updated", 1);
+        return gen;
+    }
+
+    public long delete(String docno) throws IOException {
+        long start = stats.start();
+        long gen = writer.deleteDocuments(new Term("id", docno));
+        stats.stop(StageTimer.Stage.INDEX, start);
+        stats.count("docs_deleted", 1);
+        return gen;
+    }
+
+    /** Blocks until searchers acquired from now on see the write of generation {@code gen}. */
+    public void waitForGeneration(long gen) throws InterruptedException {
+        reopener.waitForGeneration(gen);
+    }
+
+    /** Makes every write so far durable. */
+    public void commit() throws IOException {
+        writer.setLiveCommitData(commitData.entrySet());
+        writer.commit();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reopener.close();
+            manager.close();
+            commit();
+        } finally {
+            IOUtils.close(writer, dir);
+        }
+    }
+}
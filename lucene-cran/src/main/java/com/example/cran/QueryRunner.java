@@ -0,0 +1,139 @@
+package com.example.cran;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executes a query set, optionally spreading queries over worker threads, and
+ * hands the results to a {@link RunSink} strictly in query order, so the
+ * output is identical to a sequential run.
+ *
+ * Configured with -Dcran.queryThreads (queries in flight, default 1) and
+ * -Dcran.sliceThreads (IndexSearcher segment-slice executor, default 0 = off).
+ */
+public class QueryRunner implements Closeable {
+
+    /** Searches one query. Called concurrently when queryThreads > 1. */
+    @FunctionalInterface
+    public interface QueryFn {
+        ScoreDoc[] search(int qid, String qtext) throws Exception;
+    }
+
+    private final int queryThreads;
+    private final ExecutorService sliceExecutor;
+
+    public QueryRunner(int queryThreads, int sliceThreads) {
+        this.queryThreads = Math.max(1, queryThreads);
+        this.sliceExecutor = sliceThreads > 0 ? Executors.newFixedThreadPool(sliceThreads) : null;
+    }
+
+    public static QueryRunner fromSystemProperties() {
+        return new QueryRunner(Integer.getInteger("cran.queryThreads", 1),
+                Integer.getInteger("cran.sliceThreads", 0));
+    }
+
+    /** Creates a searcher that uses the slice executor, if one is configured. */
+    public IndexSearcher newSearcher(IndexReader reader) {
+        return sliceExecutor == null ? new IndexSearcher(reader) : new IndexSearcher(reader, sliceExecutor);
+    }
+
+    public void run(Map<Integer, String> queries, QueryFn fn, RunSink out) throws Exception {
+        runOrdered(queries, fn::search, out::write, out.timer());
+    }
+
+    /** Searches that rank each query several ways at once, e.g. one list per parameter setting. */
+    @FunctionalInterface
+    public interface MultiQueryFn {
+        ScoreDoc[][] search(int qid, String qtext) throws Exception;
+    }
+
+    /** Like {@link #run(Map, QueryFn, RunSink)}, sending the i-th ranked list of every query to {@code outs[i]}. */
+    public void run(Map<Integer, String> queries, MultiQueryFn fn, RunSink[] outs) throws Exception {
+        runOrdered(queries, fn::search, (qid, lists) -> {
+            for (int i = 0; i < outs.length; i++) outs[i].write(qid, lists[i]);
+        }, outs.length > 0 ? outs[0].timer() : StageTimer.NONE);
+    }
+
+    private interface Task<T> {
+        T search(int qid, String qtext) throws Exception;
+    }
+
+    private interface Handler<T> {
+        void accept(int qid, T result) throws Exception;
+    }
+
+    // Times every query (QUERY) and every hand-off to the sink (WRITE)
+    private <T> void runOrdered(Map<Integer, String> queries, Task<T> task, Handler<T> handler, StageTimer timer) throws Exception {
+        Task<T> fn = (qid, qtext) -> {
+            long t = timer.start();
+            T result = task.search(qid, qtext);
+            timer.stop(StageTimer.Stage.QUERY, t);
+            return result;
+        };
+        Handler<T> out = (qid, result) -> {
+            long t = timer.start();
+            handler.accept(qid, result);
+            timer.stop(StageTimer.Stage.WRITE, t);
+        };
+
+        if (queryThreads == 1) {
+            for (Map.Entry<Integer, String> e : queries.entrySet()) {
+                int qid = e.getKey();
+                String qtext = e.getValue();
+                if (qtext == null || qtext.isEmpty()) continue;
+                out.accept(qid, fn.search(qid, qtext));
+            }
+            return;
+        }
+
+        // Keep a bounded window of queries in flight and drain it from the head,
+        // so output order never depends on which worker finishes first.
+        ExecutorService pool = Executors.newFixedThreadPool(queryThreads);
+        int window = queryThreads * 4;
+        Deque<Integer> pendingIds = new ArrayDeque<>();
+        Deque<Future<T>> pending = new ArrayDeque<>();
+        try {
+            for (Map.Entry<Integer, String> e : queries.entrySet()) {
+                int qid = e.getKey();
+                String qtext = e.getValue();
+                if (qtext == null || qtext.isEmpty()) continue;
+
+                pendingIds.add(qid);
+                pending.add(pool.submit(() -> fn.search(qid, qtext)));
+                if (pending.size() >= window) {
+                    out.accept(pendingIds.poll(), await(pending.poll()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.accept(pendingIds.poll(), await(pending.poll()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> T await(Future<T> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (sliceExecutor != null) sliceExecutor.shutdown();
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.cran;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Cranfield query file parsed once and shared by every searcher.
+ *
+ * Query ids are sequential (1..225), which is what cranqrel uses; the original
+ * ".I" ids are kept alongside. Parsed queries are cached per (analyzer, field), so
+ * a sweep analyzes each query once per analyzer instead of once per configuration.
+ * How long each query took to parse is kept too, so every run that uses the cached
+ * queries can still report per-query parse latencies.
+ * The cached Query objects are immutable and safe to share between threads.
+ */
+public final class QuerySource {
+    private static final Map<String, QuerySource> LOADED = new ConcurrentHashMap<>();
+
+    private final Map<Integer, String> texts;
+    private final Map<Integer, Integer> originalIds;
+    private final Map<String, Map<Integer, Query>> parsed = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, Long>> parseNanos = new ConcurrentHashMap<>();
+    private final Map<String, Map<Integer, Set<BytesRef>>> terms = new ConcurrentHashMap<>();
+
+    private QuerySource(Map<Integer, String> texts, Map<Integer, Integer> originalIds) {
+        this.texts = Collections.unmodifiableMap(texts);
+        this.originalIds = originalIds;
+    }
+
+    /** Returns the (cached) source for a .qry file; the file is re-read only if it changed. */
+    public static QuerySource load(String queriesFile) throws IOException {
+        File f = new File(queriesFile).getAbsoluteFile();
+        String key = f.getPath() + "@" + f.lastModified() + ":" + f.length();
+        QuerySource source = LOADED.get(key);
+        if (source == null) {
+            source = parse(f);
+            QuerySource prev = LOADED.putIfAbsent(key, source);
+            if (prev != null) source = prev;
+        }
+        return source;
+    }
+
+    /** Sequential qid -> query text, in file order. Empty queries are kept (runners skip them). */
+    public Map<Integer, String> texts() {
+        return texts;
+    }
+
+    /** The ".I" id a sequential qid was read from. */
+    public int originalId(int qid) {
+        return originalIds.get(qid);
+    }
+
+    /** Queries by their ".I" ids, in file order. */
+    public Map<Integer, String> byOriginalId() {
+        Map<Integer, String> out = new LinkedHashMap<>();
+        for (Map.Entry<Integer, String> e : texts.entrySet()) {
+            out.put(originalIds.get(e.getKey()), e.getValue());
+        }
+        return out;
+    }
+
+    /**
+     * Every query parsed with {@link Analyzers#forName(String)} against {@code field},
+     * OR-ing the clauses like the searchers always did. Computed once per key.
+     */
+    public Map<Integer, Query> parsed(String analyzerName, String field) throws ParseException {
+        String key = analyzerName.toLowerCase() + "/" + field;
+        Map<Integer, Query> queries = parsed.get(key);
+        if (queries != null) return queries;
+
+        QueryParser parser = new QueryParser(field, Analyzers.forName(analyzerName));
+        parser.setDefaultOperator(QueryParser.Operator.OR);
+        Map<Integer, Query> out = new HashMap<>();
+        Map<Integer, Long> nanos = new HashMap<>();
+        for (Map.Entry<Integer, String> e : texts.entrySet()) {
+            String qtext = e.getValue();
+            if (qtext == null || qtext.isEmpty()) continue;
+            long start = System.nanoTime();
+            out.put(e.getKey(), parser.parse(QueryParser.escape(qtext)));
+            nanos.put(e.getKey(), System.nanoTime() - start);
+        }
+        // timings first: whoever sees the queries can also find their timings
+        parseNanos.putIfAbsent(key, Collections.unmodifiableMap(nanos));
+        Map<Integer, Query> prev = parsed.putIfAbsent(key, Collections.unmodifiableMap(out));
+        return prev != null ? prev : parsed.get(key);
+    }
+
+    /** Same as {@link #parsed(String, String)}, recording each query's parse time into {@code timer}. */
+    public Map<Integer, Query> parsed(String analyzerName, String field, StageTimer timer) throws ParseException {
+        Map<Integer, Query> queries = parsed(analyzerName, field);
+        recordParse(timer, analyzerName, field);
+        return queries;
+    }
+
+    /**
+     * Records one PARSE sample per query into {@code timer}: the time the query took to parse
+     * against each of {@code fields}, summed. Parses the queries first if needed.
+     */
+    public void recordParse(StageTimer timer, String analyzerName, String... fields) throws ParseException {
+        Map<Integer, Long> total = new HashMap<>();
+        for (String field : fields) {
+            parsed(analyzerName, field);
+            parseNanos.get(analyzerName.toLowerCase() + "/" + field).forEach((qid, n) -> total.merge(qid, n, Long::sum));
+        }
+        for (long n : total.values()) timer.record(StageTimer.Stage.PARSE, n);
+    }
+
+    /** The analyzed terms of each parsed query, as indexed bytes. */
+    public Map<Integer, Set<BytesRef>> terms(String analyzerName, String field) throws ParseException {
+        String key = analyzerName.toLowerCase() + "/" + field;
+        Map<Integer, Set<BytesRef>> cached = terms.get(key);
+        if (cached != null) return cached;
+
+        Map<Integer, Set<BytesRef>> out = new HashMap<>();
+        for (Map.Entry<Integer, Query> e : parsed(analyzerName, field).entrySet()) {
+            Set<Term> collected = new HashSet<>();
+            e.getValue().visit(QueryVisitor.termCollector(collected));
+            Set<BytesRef> bytes = new HashSet<>();
+            for (Term t : collected) bytes.add(t.bytes());
+            out.put(e.getKey(), Collections.unmodifiableSet(bytes));
+        }
+        Map<Integer, Set<BytesRef>> prev = terms.putIfAbsent(key, Collections.unmodifiableMap(out));
+        return prev != null ? prev : terms.get(key);
+    }
+
+    // Line-oriented: ".I" starts a query, ".W" starts its text, text lines are joined with single spaces.
+    private static QuerySource parse(File f) throws IOException {
+        Map<Integer, String> texts = new LinkedHashMap<>();
+        Map<Integer, Integer> originalIds = new HashMap<>();
+        int currentId = 0;
+        StringBuilder sb = null;
+        boolean inW = false;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith(".I")) {
+                    if (currentId != 0) texts.put(currentId, sb.toString().trim());
+                    currentId++;
+                    originalIds.put(currentId, Integer.parseInt(line.substring(2).trim()));
+                    sb = new StringBuilder();
+                    inW = false;
+                } else if (line.startsWith(".W")) {
+                    inW = true;
+                } else if (inW && !line.isEmpty()) {
+                    if (sb.length() > 0) sb.append(' ');
+                    sb.append(line);
+                }
+            }
+        }
+        if (currentId != 0) texts.put(currentId, sb.toString().trim());
+
+        return new QuerySource(texts, originalIds);
+    }
+}
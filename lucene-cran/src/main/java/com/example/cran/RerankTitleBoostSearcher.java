@@ -2,16 +2,14 @@ package com.example.cran;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 
 import java.io.*;
 import java.nio.file.Path;
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -39,105 +37,71 @@ public class RerankTitleBoostSearcher {
     }
 
     public void search(String queriesFile, String outputFile) throws Exception {
-        Directory dir = FSDirectory.open(indexPath);
+        Directory dir = IndexStorage.fromSystemProperties().open(indexPath);
         DirectoryReader reader = DirectoryReader.open(dir);
-        IndexSearcher searcher = new IndexSearcher(reader);
 
-        // Use same field used in baseline Searcher ("all" in your case)
-        QueryParser bodyParser = new QueryParser("content", analyzer);
-        QueryParser titleParser = new QueryParser("title", analyzer);
-
-        Map<Integer, String> queries = parseCranQueries(queriesFile);
-
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile))) {
-
-            for (Map.Entry<Integer, String> e : queries.entrySet()) {
-                int qid = e.getKey();
-                String qtext = e.getValue();
-                if (qtext == null || qtext.isEmpty()) continue;
-
-                // Rocchio expansion
-                String expandedQuery = RocchioUtils.expandQuery(searcher, analyzer, "all",
-                        qtext, alpha, beta, fbDocs, expTerms);
-
-                // Base retrieval on expanded query
-                Query baseQ = bodyParser.parse(QueryParser.escape(expandedQuery));
-                TopDocs top = searcher.search(baseQ, topN);
-
-                if (top.scoreDocs.length == 0) {
-                    // fallback to original query if Rocchio fails
-                    baseQ = bodyParser.parse(QueryParser.escape(qtext));
-                    top = searcher.search(baseQ, topN);
-                }
-
-                System.out.println("Query " + qid + " got " + top.scoreDocs.length + " docs for reranking.");
-
-                // Build title query for reranking
-                Query titleQ = titleParser.parse(QueryParser.escape(qtext));
-
-                // STEP 4 — Rerank based on title match
-                ScoreDoc[] reranked = new ScoreDoc[top.scoreDocs.length];
-                for (int i = 0; i < top.scoreDocs.length; i++) {
-                    ScoreDoc sd = top.scoreDocs[i];
-                    Number titleVal = searcher.explain(titleQ, sd.doc).getValue();
-                    float titleScore = titleVal != null ? titleVal.floatValue() : 0f;
-                    float newScore = sd.score + rerankBoost * titleScore;
-                    reranked[i] = new ScoreDoc(sd.doc, newScore);
-                }
-
-                // Sort by newScore descending
-                reranked = sortScoreDocs(reranked);
-
-                // Write to TREC format file
-                for (int rank = 0; rank < reranked.length; rank++) {
-                    Document doc = searcher.doc(reranked[rank].doc);
-                    String docno = doc.get("id");
-                    bw.write(qid + " Q0 " + docno + " " + (rank + 1) + " " + reranked[rank].score + " run_rerank_rocchio\n");
-                }
-            }
-
-            bw.flush();
-        }
+        search(reader, queriesFile, outputFile);
 
         reader.close();
         dir.close();
     }
 
-    // helper: stable sort of ScoreDocs by score descending
-    private static ScoreDoc[] sortScoreDocs(ScoreDoc[] sds) {
-        java.util.Arrays.sort(sds, (a, b) -> Float.compare(b.score, a.score));
-        return sds;
+    /** Same as {@link #search(String, String)} but against an already open, shared reader. */
+    public void search(IndexReader reader, String queriesFile, String outputFile) throws Exception {
+        try (TrecRunWriter out = new TrecRunWriter(outputFile, reader, "run_rerank_rocchio")) {
+            search(reader, queriesFile, out);
+        }
     }
 
-    // parse Cranfield queries (same as in Searcher.java)
-    private static Map<Integer, String> parseCranQueries(String queriesFile) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(queriesFile));
-        Map<Integer, String> map = new LinkedHashMap<>();
-        String line;
-        int currentId = 0;
-        StringBuilder sb = null;
-        boolean inW = false;
-
-        while ((line = br.readLine()) != null) {
-            line = line.trim();
-            if (line.startsWith(".I")) {
-                if (currentId != 0 && sb != null) {
-                    map.put(currentId, sb.toString().trim());
-                }
-                currentId++;
-                sb = new StringBuilder();
-                inW = false;
-            } else if (line.startsWith(".W")) {
-                inW = true;
-            } else if (inW && !line.isEmpty()) {
-                if (sb.length() > 0) sb.append(" ");
-                sb.append(line);
-            }
+    /** Runs the queries and hands each ranked list to {@code sink}, in qid order. */
+    public void search(IndexReader reader, String queriesFile, RunSink sink) throws Exception {
+        QuerySource source = QuerySource.load(queriesFile);
+        StageTimer timer = sink.timer();
+        Map<Integer, Query> contentQueries = source.parsed("english", "content");
+        Map<Integer, Query> titleQueries = source.parsed("english", "title");
+        source.recordParse(timer, "english", "content", "title");
+        try (QueryRunner runner = QueryRunner.fromSystemProperties()) {
+
+            IndexSearcher searcher = runner.newSearcher(reader);
+
+            runner.run(source.texts(), (qid, qtext) ->
+                    search(searcher, qtext, contentQueries.get(qid), titleQueries.get(qid), timer), sink);
         }
-        if (currentId != 0 && sb != null) {
-            map.put(currentId, sb.toString().trim());
+    }
+
+    /**
+     * Ranks one query: Rocchio-expanded retrieval of the top {@code topN} (falling back to
+     * {@code contentQ} if the expansion finds nothing), then a title rerank with {@code titleQ}.
+     */
+    ScoreDoc[] search(IndexSearcher searcher, String qtext, Query contentQ, Query titleQ, StageTimer timer) throws Exception {
+        // expansion and base retrieval don't depend on boost or topN, so the grid shares them
+        FeedbackCache cache = FeedbackCache.shared();
+
+        // Use same field used in baseline Searcher ("all" in your case)
+        QueryParser bodyParser = new QueryParser("content", analyzer);
+
+        // Rocchio expansion; parsing the expanded text is part of it, PARSE covers the original query
+        Query baseQ = timer.time(StageTimer.Stage.EXPAND, () -> bodyParser.parse(QueryParser.escape(
+                RocchioUtils.expandQuery(searcher, analyzer, "all", qtext, alpha, beta, fbDocs, expTerms))));
+
+        // Base retrieval on expanded query
+        long t = timer.start();
+        TopDocs top = cache.topDocs(searcher, baseQ, topN);
+
+        if (top.scoreDocs.length == 0) {
+            // fallback to original query if Rocchio fails
+            top = cache.topDocs(searcher, contentQ, topN);
         }
-        br.close();
-        return map;
+        timer.stop(StageTimer.Stage.SEARCH, t);
+
+        // STEP 4 — Rerank based on title match: one scorer pass over the
+        // candidates in doc id order instead of an explain() per document
+        TopDocs candidates = top;
+        return timer.time(StageTimer.Stage.RERANK, () -> new QueryRescorer(titleQ) {
+            @Override
+            protected float combine(float firstPassScore, boolean secondPassMatches, float secondPassScore) {
+                return secondPassMatches ? firstPassScore + rerankBoost * secondPassScore : firstPassScore;
+            }
+        }.rescore(searcher, candidates, candidates.scoreDocs.length).scoreDocs);
     }
 }
\ No newline at end of file
@@ -2,21 +2,23 @@ package com.example.cran;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.InPlaceMergeSorter;
 
 import java.io.*;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class RocchioSearcher {
+    // only used to analyze feedback documents that lack term vectors
+    private static final Analyzer ANALYZER = new EnglishAnalyzer();
+
     private final Path indexPath;
     private final float alpha;      // weight for original query
     private final float beta;       // weight for expansion terms
@@ -32,140 +34,120 @@ public class RocchioSearcher {
     }
 
     public void search(String queriesFile, String outputFile) throws Exception {
-        Analyzer analyzer = new EnglishAnalyzer();
-
-        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexPath));
-             BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile))) {
-
-            IndexSearcher searcher = new IndexSearcher(reader);
-            // Use the tuned BM25 we liked; adjust if you want
-            searcher.setSimilarity(new BM25Similarity(1.5f, 0.6f));
-
-            QueryParser parser = new QueryParser("content", analyzer);
-            parser.setDefaultOperator(QueryParser.Operator.OR);
-
-            Map<Integer, String> queries = parseCranQueries(queriesFile);
-            int N = reader.maxDoc();
-
-            for (Map.Entry<Integer, String> e : queries.entrySet()) {
-                int qid = e.getKey();
-                String qtext = e.getValue();
-                if (qtext == null || qtext.isEmpty()) continue;
-
-                // Base query
-                Query baseQ = parser.parse(QueryParser.escape(qtext));
-
-                // First pass: get feedback docs
-                TopDocs fb = searcher.search(baseQ, Math.max(fbDocs, 1));
-
-                // Collect terms from feedback docs (title + content)
-                Map<String, Double> tfMap = new HashMap<>();
-                for (ScoreDoc sd : fb.scoreDocs) {
-                    Document d = searcher.doc(sd.doc);
-                    StringBuilder sb = new StringBuilder();
-                    String title = d.get("title");
-                    String content = d.get("content");
-                    if (title != null) sb.append(title).append(' ');
-                    if (content != null) sb.append(content);
-                    for (String tok : analyzeText(analyzer, "content", sb.toString())) {
-                        if (tok.length() < 3) continue; // discard tiny tokens
-                        tfMap.merge(tok, 1.0, Double::sum);
-                    }
-                }
-
-                // Compute TF-IDF weights
-                double maxWeight = 0.0;
-                Map<String, Double> tfidf = new HashMap<>();
-                for (Map.Entry<String, Double> te : tfMap.entrySet()) {
-                    String term = te.getKey();
-                    int df = reader.docFreq(new Term("content", term));
-                    if (df <= 0) continue;
-                    double idf = Math.log((N + 1.0) / (df + 1.0)) + 1.0; // classic idf
-                    double w = te.getValue() * idf;
-                    tfidf.put(term, w);
-                    if (w > maxWeight) maxWeight = w;
-                }
-
-                // Original query tokens to avoid duplicating
-                Set<String> originalTokens = new HashSet<>(analyzeText(analyzer, "content", qtext));
-
-                // Pick top expansion terms not already in query
-                List<Map.Entry<String, Double>> topExp = tfidf.entrySet().stream()
-                        .filter(en -> !originalTokens.contains(en.getKey()))
-                        .sorted((a, b) -> Double.compare(b.getValue(), a.getValue()))
-                        .limit(maxExpTerms)
-                        .collect(Collectors.toList());
-
-                // Build expanded query: alpha * base + sum beta * termQuery
-                BooleanQuery.Builder expanded = new BooleanQuery.Builder();
-                expanded.add(new BoostQuery(baseQ, alpha), BooleanClause.Occur.SHOULD);
-
-                for (Map.Entry<String, Double> en : topExp) {
-                    double norm = maxWeight > 0 ? (en.getValue() / maxWeight) : 0.0;
-                    float boost = (float) (beta * (0.5 + 0.5 * norm)); // scaled into [0.5*beta, 1*beta]
-                    Query tq = new BoostQuery(new TermQuery(new Term("content", en.getKey())), boost);
-                    expanded.add(tq, BooleanClause.Occur.SHOULD);
-                }
-
-                TopDocs finalResults = searcher.search(expanded.build(), 1000);
-                ScoreDoc[] hits = finalResults.scoreDocs;
-
-                for (int i = 0; i < hits.length; i++) {
-                    Document doc = searcher.doc(hits[i].doc);
-                    String docno = doc.get("id");
-                    float score = hits[i].score;
-                    int rank = i + 1;
-                    bw.write(qid + " Q0 " + docno + " " + rank + " " + score + " run_rocchio");
-                    bw.newLine();
-                }
-            }
+        try (DirectoryReader reader = DirectoryReader.open(IndexStorage.fromSystemProperties().open(indexPath))) {
+            search(reader, queriesFile, outputFile);
+        }
+    }
 
-            bw.flush();
+    /** Same as {@link #search(String, String)} but against an already open, shared reader. */
+    public void search(IndexReader reader, String queriesFile, String outputFile) throws Exception {
+        try (TrecRunWriter out = new TrecRunWriter(outputFile, reader, "run_rocchio")) {
+            search(reader, queriesFile, out);
         }
     }
 
-    private static List<String> analyzeText(Analyzer analyzer, String field, String text) throws IOException {
-        List<String> tokens = new ArrayList<>();
-        try (var ts = analyzer.tokenStream(field, text)) {
-            CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
-            ts.reset();
-            while (ts.incrementToken()) {
-                tokens.add(termAtt.toString());
-            }
-            ts.end();
+    /** Runs the queries and hands each ranked list to {@code sink}, in qid order. */
+    public void search(IndexReader reader, String queriesFile, RunSink sink) throws Exception {
+        QuerySource source = QuerySource.load(queriesFile);
+        StageTimer timer = sink.timer();
+        Map<Integer, Query> parsed = source.parsed("english", "content", timer);
+        Map<Integer, Set<BytesRef>> queryTerms = source.terms("english", "content");
+
+        try (QueryRunner runner = QueryRunner.fromSystemProperties()) {
+
+            IndexSearcher searcher = runner.newSearcher(reader);
+            configure(searcher);
+
+            runner.run(source.texts(), (qid, qtext) -> search(searcher, parsed.get(qid), queryTerms.get(qid), timer), sink);
         }
-        return tokens;
     }
 
-    // same parser as others
-    private static Map<Integer, String> parseCranQueries(String queriesFile) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(queriesFile));
-        Map<Integer, String> map = new LinkedHashMap<>();
-        String line;
-        int currentId = 0;
-        StringBuilder sb = null;
-        boolean inW = false;
-
-        while ((line = br.readLine()) != null) {
-            line = line.trim();
-            if (line.startsWith(".I")) {
-                if (currentId != 0 && sb != null) {
-                    map.put(currentId, sb.toString().trim());
-                }
-                currentId++;
-                sb = new StringBuilder();
-                inW = false;
-            } else if (line.startsWith(".W")) {
-                inW = true;
-            } else if (inW && !line.isEmpty()) {
-                if (sb.length() > 0) sb.append(" ");
-                sb.append(line);
+    /** Sets the similarity this searcher ranks with. */
+    static void configure(IndexSearcher searcher) {
+        searcher.setSimilarity(similarity());
+    }
+
+    /** The similarity this searcher ranks with. */
+    static Similarity similarity() {
+        // Use the tuned BM25 we liked; adjust if you want
+        return new BM25Similarity(1.5f, 0.6f);
+    }
+
+    /**
+     * Expands one query with terms from its own top documents and searches again.
+     * @param searcher       a searcher set up with {@link #configure}
+     * @param originalTokens the analyzed terms of {@code baseQ}, never added as expansion terms
+     */
+    ScoreDoc[] search(IndexSearcher searcher, Query baseQ, Set<BytesRef> originalTokens, StageTimer timer) throws Exception {
+        IndexReader reader = searcher.getIndexReader();
+        int N = reader.maxDoc();
+        // the first pass only depends on the query, so the whole grid shares it
+        FeedbackCache cache = FeedbackCache.shared();
+
+        // First pass: collect terms from the feedback docs (title + content)
+        FeedbackTerms fbTerms = timer.time(StageTimer.Stage.FEEDBACK,
+                () -> cache.feedbackTerms(searcher, baseQ, Math.max(fbDocs, 1), ANALYZER));
+
+        long t = timer.start();
+        // Compute TF-IDF weights (terms unknown to "content" are skipped)
+        int size = fbTerms.size();
+        double[] weights = new double[size];
+        boolean[] known = new boolean[size];
+        double maxWeight = 0.0;
+        BytesRef scratch = new BytesRef();
+        for (int id = 0; id < size; id++) {
+            int df = reader.docFreq(new Term("content", fbTerms.term(id, scratch)));
+            if (df <= 0) continue;
+            double idf = Math.log((N + 1.0) / (df + 1.0)) + 1.0; // classic idf
+            weights[id] = fbTerms.freq(id) * idf;
+            known[id] = true;
+            if (weights[id] > maxWeight) maxWeight = weights[id];
+        }
+
+        // Pick top expansion terms not already in query
+        int[] candidates = new int[size];
+        int numCandidates = 0;
+        for (int id = 0; id < size; id++) {
+            if (known[id] && !originalTokens.contains(fbTerms.term(id, scratch))) {
+                candidates[numCandidates++] = id;
             }
         }
-        if (currentId != 0 && sb != null) {
-            map.put(currentId, sb.toString().trim());
+        int[] topExp = topByWeight(candidates, numCandidates, weights, fbTerms, maxExpTerms);
+
+        // Build expanded query: alpha * base + sum beta * termQuery
+        BooleanQuery.Builder expanded = new BooleanQuery.Builder();
+        expanded.add(new BoostQuery(baseQ, alpha), BooleanClause.Occur.SHOULD);
+
+        for (int id : topExp) {
+            double norm = maxWeight > 0 ? (weights[id] / maxWeight) : 0.0;
+            float boost = (float) (beta * (0.5 + 0.5 * norm)); // scaled into [0.5*beta, 1*beta]
+            Term term = new Term("content", BytesRef.deepCopyOf(fbTerms.term(id, scratch)));
+            expanded.add(new BoostQuery(new TermQuery(term), boost), BooleanClause.Occur.SHOULD);
         }
-        br.close();
-        return map;
+
+        Query expandedQ = expanded.build();
+        timer.stop(StageTimer.Stage.EXPAND, t);
+
+        return timer.time(StageTimer.Stage.SEARCH, () -> TopKSearch.shared().search(searcher, expandedQ, 1000, timer).scoreDocs);
+    }
+
+    // Highest weights first; equal weights fall back to term order so the pick is deterministic
+    private static int[] topByWeight(int[] ids, int count, double[] weights, FeedbackTerms terms, int k) {
+        BytesRef a = new BytesRef(), b = new BytesRef();
+        new InPlaceMergeSorter() {
+            @Override
+            protected int compare(int i, int j) {
+                int c = Double.compare(weights[ids[j]], weights[ids[i]]);
+                return c != 0 ? c : terms.term(ids[i], a).compareTo(terms.term(ids[j], b));
+            }
+
+            @Override
+            protected void swap(int i, int j) {
+                int tmp = ids[i];
+                ids[i] = ids[j];
+                ids[j] = tmp;
+            }
+        }.sort(0, count);
+        return Arrays.copyOf(ids, Math.min(k, count));
     }
 }
@@ -2,11 +2,14 @@ package com.example.cran;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 
+import java.io.IOException;
 import java.util.*;
 
 public class RocchioUtils {
@@ -16,11 +19,17 @@ public class RocchioUtils {
                                      float alpha, float beta,
                                      int fbDocs, int expTerms) throws Exception {
 
+        // nothing can match a field that isn't indexed (the rerank searcher asks for "all");
+        // skip the first pass so it doesn't fill the feedback cache with empty entries
+        if (!indexed(searcher.getIndexReader(), field)) {
+            return originalQuery;
+        }
+
         // original query as base
         QueryParser parser = new QueryParser(field, analyzer);
         Query q = parser.parse(QueryParser.escape(originalQuery));
 
-        TopDocs top = searcher.search(q, fbDocs);
+        TopDocs top = FeedbackCache.shared().topDocs(searcher, q, fbDocs);
         if (top.scoreDocs.length == 0) {
             return originalQuery;
         }
@@ -61,4 +70,11 @@ public class RocchioUtils {
 
         return expanded.toString();
     }
+
+    private static boolean indexed(IndexReader reader, String field) throws IOException {
+        for (LeafReaderContext leaf : reader.leaves()) {
+            if (leaf.reader().terms(field) != null) return true;
+        }
+        return false;
+    }
 }
@@ -0,0 +1,119 @@
+package com.example.cran;
+
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ranked lists of finished runs, stored under a key that covers everything a ranking
+ * depends on: the run's tag, similarity and parameters, what the index contains (see
+ * {@link Indexer#fingerprint}), the query file and {@link #VERSION}.
+ * A sweep replays a configuration whose key is already stored instead of searching again;
+ * changing any input changes the key, so stale entries are never read, only left behind.
+ *
+ * Entries are {@link RunFile binary runs}: they hold docnos rather than doc ids, so they
+ * survive an identical rebuild of the index. They live in -Dcran.runCache (default
+ * target/run-cache; "off" disables the cache).
+ */
+public final class RunCache {
+    /** Bump whenever a searcher changes how it ranks in a way its tag and similarity don't show. */
+    public static final int VERSION = 1;
+
+    private final Path path;
+    private final String queriesHash;
+    private final Map<IndexReader.CacheKey, String> fingerprints = new ConcurrentHashMap<>();
+
+    public RunCache(Path path, String queriesFile) throws IOException {
+        Files.createDirectories(path);
+        this.path = path;
+        this.queriesHash = Indexer.sha256(Paths.get(queriesFile));
+    }
+
+    /** The cache configured by -Dcran.runCache, or null when it is "off". */
+    public static RunCache fromSystemProperties(String queriesFile) throws IOException {
+        String path = System.getProperty("cran.runCache", "target/run-cache");
+        return path.equals("off") ? null : new RunCache(Paths.get(path), queriesFile);
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * The key of a run over {@code reader}, with {@code params} holding its similarity and any
+     * settings its tag doesn't spell out, or null when the reader's contents can't be
+     * identified (e.g. an in-memory composite), in which case the run isn't cached.
+     */
+    public String key(String tag, String params, IndexReader reader) throws IOException {
+        String fingerprint = fingerprint(reader);
+        if (fingerprint == null) return null;
+        return sha256("v" + VERSION + "\n" + tag + "\n" + (params == null ? "" : params) + "\n" + fingerprint + "\n" + queriesHash)
+                .substring(0, 32);
+    }
+
+    private String fingerprint(IndexReader reader) throws IOException {
+        IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        String cached = helper == null ? null : fingerprints.get(helper.getKey());
+        if (cached != null) return cached;
+
+        String fingerprint;
+        if (reader instanceof DirectoryReader) {
+            fingerprint = Indexer.fingerprint((DirectoryReader) reader);
+        } else {
+            // e.g. the shards' MultiReader: the fingerprints of its indexes, in order
+            List<IndexReaderContext> children = reader.getContext().children();
+            if (children == null) return null;
+            StringBuilder sb = new StringBuilder("multi");
+            for (IndexReaderContext child : children) {
+                if (!(child.reader() instanceof DirectoryReader)) return null;
+                sb.append('|').append(Indexer.fingerprint((DirectoryReader) child.reader()));
+            }
+            fingerprint = sb.toString();
+        }
+        if (helper != null) fingerprints.put(helper.getKey(), fingerprint);
+        return fingerprint;
+    }
+
+    /** The verified entry under {@code key}, or null if there is none or it is damaged. */
+    public RunFile load(String key) throws IOException {
+        Path file = path.resolve(key + ".run");
+        if (!Files.exists(file)) return null;
+        try {
+            RunFile run = RunFile.open(file);
+            run.verify();
+            return run;
+        } catch (CorruptIndexException e) {
+            System.err.println("Ignoring damaged run cache entry " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * A sink that stores the ranked lists of a run over {@code reader} under {@code key}
+     * when it is closed; a writer dropped without closing leaves no entry behind.
+     */
+    public RunFile.Writer writer(String key, IndexReader reader) throws IOException {
+        return new RunFile.Writer(path.resolve(key + ".run"), reader, key);
+    }
+
+    private static String sha256(String s) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
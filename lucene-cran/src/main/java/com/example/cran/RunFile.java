@@ -0,0 +1,467 @@
+package com.example.cran;
+
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A run in a compact binary layout, as an alternative to TREC text: a table of the distinct
+ * docnos, then one column of qids with the offsets of their hits, and one column each of
+ * docno ordinals and float scores for all hits in rank order. Everything is little-endian
+ * and 4-byte aligned, so an opened file is read in place from a memory mapping, without
+ * parsing or copying; the docno table is the only thing decoded (once, on first use).
+ *
+ * Layout: magic, version, queries, hits, docnos, run tag bytes; run tag (UTF-8);
+ * docno offsets [docnos + 1]; docno bytes (UTF-8); qids [queries]; hit offsets [queries + 1];
+ * docno ordinals [hits]; scores [hits]; CRC32 of everything before it.
+ *
+ * {@link Writer} writes one through a FileChannel; {@link #toTrec} and {@link #fromTrec}
+ * convert from and to TREC text for trec_eval and other tools.
+ */
+public final class RunFile {
+    private static final int MAGIC = 0x4e555243; // "CRUN" read as a little-endian int
+    private static final int VERSION = 0;
+    private static final int HEADER_BYTES = 6 * Integer.BYTES;
+
+    private final Path path;
+    private final ByteBuffer data;
+    private final String runTag;
+    private final IntBuffer docnoOffsets;
+    private final ByteBuffer docnoBytes;
+    private final IntBuffer qids;
+    private final IntBuffer hitOffsets;
+    private final IntBuffer ordinals;
+    private final FloatBuffer scores;
+    private volatile String[] docnos;
+
+    private RunFile(Path path, ByteBuffer data) throws IOException {
+        this.path = path;
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        if (data.capacity() < HEADER_BYTES + Integer.BYTES || data.getInt(0) != MAGIC) {
+            throw new CorruptIndexException("not a binary run file", path.toString());
+        }
+        if (data.getInt(4) != VERSION) throw new CorruptIndexException("unsupported run file version " + data.getInt(4), path.toString());
+        int queries = data.getInt(8), hits = data.getInt(12), docnoCount = data.getInt(16), tagBytes = data.getInt(20);
+
+        int pos = HEADER_BYTES;
+        check(pos, tagBytes, 1);
+        byte[] tag = new byte[tagBytes];
+        data.get(pos, tag);
+        this.runTag = new String(tag, StandardCharsets.UTF_8);
+        pos += align(tagBytes);
+        this.docnoOffsets = ints(pos, docnoCount + 1);
+        pos += (docnoCount + 1) * Integer.BYTES;
+        int docnoByteCount = docnoOffsets.get(docnoCount);
+        check(pos, docnoByteCount, 1);
+        this.docnoBytes = data.slice(pos, docnoByteCount);
+        pos += align(docnoByteCount);
+        this.qids = ints(pos, queries);
+        pos += queries * Integer.BYTES;
+        this.hitOffsets = ints(pos, queries + 1);
+        pos += (queries + 1) * Integer.BYTES;
+        this.ordinals = ints(pos, hits);
+        pos += hits * Integer.BYTES;
+        check(pos, hits, Float.BYTES);
+        this.scores = data.slice(pos, hits * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        pos += hits * Float.BYTES;
+        if (pos + Integer.BYTES != data.capacity()) {
+            throw new CorruptIndexException("expected " + (pos + Integer.BYTES) + " bytes, found " + data.capacity(), path.toString());
+        }
+    }
+
+    private IntBuffer ints(int pos, int count) throws CorruptIndexException {
+        check(pos, count, Integer.BYTES);
+        return data.slice(pos, count * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    private void check(int pos, int count, int bytes) throws CorruptIndexException {
+        if (count < 0 || (long) pos + (long) count * bytes > data.capacity()) {
+            throw new CorruptIndexException("truncated run file", path.toString());
+        }
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+
+    /** Maps the run at {@code path}; the mapping outlives the file channel and is released by the GC. */
+    public static RunFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new CorruptIndexException("run file too large", path.toString());
+            return new RunFile(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /** Whether {@code path} starts like a binary run file rather than a TREC text run. */
+    public static boolean isRunFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // read the 4 magic bytes, if the file has them
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /** Checks the trailing checksum, i.e. that the file is neither truncated nor damaged. */
+    public void verify() throws IOException {
+        int end = data.capacity() - Integer.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(data.slice(0, end));
+        if ((int) crc.getValue() != data.getInt(end)) throw new CorruptIndexException("run file checksum mismatch", path.toString());
+    }
+
+    public String runTag() {
+        return runTag;
+    }
+
+    /** Number of queries; {@code q} below is a query's position, 0 to queries() - 1, in qid order. */
+    public int queries() {
+        return qids.limit();
+    }
+
+    public int qid(int q) {
+        return qids.get(q);
+    }
+
+    public int hits(int q) {
+        return hitOffsets.get(q + 1) - hitOffsets.get(q);
+    }
+
+    public String docno(int q, int rank) {
+        return docnos()[ordinals.get(hitOffsets.get(q) + rank)];
+    }
+
+    public float score(int q, int rank) {
+        return scores.get(hitOffsets.get(q) + rank);
+    }
+
+    /** Query {@code q}'s scores in rank order. */
+    public float[] scores(int q) {
+        float[] s = new float[hits(q)];
+        scores.get(hitOffsets.get(q), s);
+        return s;
+    }
+
+    /** Query {@code q}'s docnos in rank order. */
+    public String[] docnos(int q) {
+        String[] table = docnos();
+        int start = hitOffsets.get(q);
+        String[] ids = new String[hits(q)];
+        for (int i = 0; i < ids.length; i++) ids[i] = table[ordinals.get(start + i)];
+        return ids;
+    }
+
+    private String[] docnos() {
+        String[] table = docnos;
+        if (table == null) {
+            table = new String[docnoOffsets.limit() - 1];
+            for (int i = 0; i < table.length; i++) {
+                int start = docnoOffsets.get(i);
+                table[i] = StandardCharsets.UTF_8.decode(docnoBytes.slice(start, docnoOffsets.get(i + 1) - start)).toString();
+            }
+            docnos = table;
+        }
+        return table;
+    }
+
+    /** Doc ids in {@code reader} by docno ordinal, or null if the reader lacks one of the run's documents. */
+    public int[] resolve(IndexReader reader) throws IOException {
+        DocnoLookup lookup = DocnoLookup.of(reader);
+        String[] table = docnos();
+        int[] docIds = new int[table.length];
+        for (int i = 0; i < table.length; i++) {
+            docIds[i] = lookup.docId(table[i]);
+            if (docIds[i] < 0) return null;
+        }
+        return docIds;
+    }
+
+    /** Sends every query's hits, as doc ids from {@link #resolve}, to {@code sink} in qid order. */
+    public void replay(int[] docIds, RunSink sink) throws IOException {
+        for (int q = 0; q < queries(); q++) {
+            int start = hitOffsets.get(q);
+            ScoreDoc[] hits = new ScoreDoc[hits(q)];
+            for (int i = 0; i < hits.length; i++) hits[i] = new ScoreDoc(docIds[ordinals.get(start + i)], scores.get(start + i));
+            sink.write(qid(q), hits);
+        }
+    }
+
+    /** Writes {@code run} as TREC text, the way {@link TrecRunWriter} would have. */
+    public static void toTrec(Path run, Path trec) throws IOException {
+        RunFile file = open(run);
+        try (BufferedWriter bw = Files.newBufferedWriter(trec)) {
+            for (int q = 0; q < file.queries(); q++) {
+                String prefix = file.qid(q) + " Q0 ";
+                String[] ids = file.docnos(q);
+                for (int i = 0; i < ids.length; i++) {
+                    bw.write(prefix);
+                    bw.write(ids[i]);
+                    bw.write(' ');
+                    bw.write(Integer.toString(i + 1));
+                    bw.write(' ');
+                    bw.write(Float.toString(file.score(q, i)));
+                    bw.write(' ');
+                    bw.write(file.runTag());
+                    bw.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a TREC text run (qid Q0 docno rank score runid). Queries are stored in qid
+     * order and each query's hits in file order; the run tag is taken from the first line.
+     */
+    public static void fromTrec(Path trec, Path run) throws IOException {
+        Map<Integer, List<String[]>> byQuery = new TreeMap<>();
+        String runTag = "";
+        try (BufferedReader br = Files.newBufferedReader(trec)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length < 6) continue;
+                if (byQuery.isEmpty()) runTag = parts[5];
+                byQuery.computeIfAbsent(Integer.parseInt(parts[0]), k -> new ArrayList<>()).add(parts);
+            }
+        }
+
+        try (Writer writer = new Writer(run, runTag)) {
+            for (Map.Entry<Integer, List<String[]>> e : byQuery.entrySet()) {
+                List<String[]> rows = e.getValue();
+                String[] ids = new String[rows.size()];
+                float[] s = new float[rows.size()];
+                for (int i = 0; i < rows.size(); i++) {
+                    ids[i] = rows.get(i)[2];
+                    s[i] = Float.parseFloat(rows.get(i)[4]);
+                }
+                writer.add(e.getKey(), ids, s);
+            }
+        }
+    }
+
+    /** Converts a run file: {@code to-trec <run> <trec>} or {@code from-trec <trec> <run>}. */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("to-trec")) {
+            toTrec(Paths.get(args[1]), Paths.get(args[2]));
+        } else if (args.length == 3 && args[0].equals("from-trec")) {
+            fromTrec(Paths.get(args[1]), Paths.get(args[2]));
+        } else {
+            System.err.println("usage: RunFile to-trec <run> <trec> | from-trec <trec> <run>");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Collects a run in memory as columns and writes the file on {@link #close}, so nothing
+     * appears on disk for a run that is abandoned before closing; the file appears atomically.
+     * Queries must arrive in increasing qid order, as {@link QueryRunner} sends them.
+     * Not thread-safe.
+     */
+    public static final class Writer implements RunSink, Closeable {
+        private final Path path;
+        private final String runTag;
+        private final DocnoLookup lookup; // null unless hits arrive as doc ids
+        private final int[] ordinalByDoc;
+
+        private final Map<String, Integer> ordinalByDocno = new HashMap<>();
+        private final List<String> docnoTable = new ArrayList<>();
+        private int[] qids = new int[256];
+        private int[] hitOffsets = new int[257];
+        private int queries;
+        private int[] ordinals = new int[1 << 14];
+        private float[] scores = new float[1 << 14];
+        private int hits;
+        private boolean closed;
+
+        /** A writer for hits as doc ids of {@code reader}. */
+        public Writer(Path path, IndexReader reader, String runTag) throws IOException {
+            this.path = path;
+            this.runTag = runTag;
+            this.lookup = DocnoLookup.of(reader);
+            this.ordinalByDoc = new int[reader.maxDoc()];
+            Arrays.fill(ordinalByDoc, -1);
+        }
+
+        /** A writer for hits given as docnos, see {@link #add}. */
+        public Writer(Path path, String runTag) {
+            this.path = path;
+            this.runTag = runTag;
+            this.lookup = null;
+            this.ordinalByDoc = null;
+        }
+
+        @Override
+        public void write(int qid, ScoreDoc[] hits) {
+            startQuery(qid, hits.length);
+            for (ScoreDoc sd : hits) {
+                int ord = ordinalByDoc[sd.doc];
+                if (ord < 0) ord = ordinalByDoc[sd.doc] = ordinal(lookup.get(sd.doc));
+                addHit(ord, sd.score);
+            }
+        }
+
+        public void add(int qid, String[] docnos, float[] scores) {
+            startQuery(qid, docnos.length);
+            for (int i = 0; i < docnos.length; i++) addHit(ordinal(docnos[i]), scores[i]);
+        }
+
+        private void startQuery(int qid, int count) {
+            if (queries > 0 && qid <= qids[queries - 1]) {
+                throw new IllegalArgumentException("qid " + qid + " after " + qids[queries - 1] + ": queries must come in increasing qid order");
+            }
+            if (queries == qids.length) {
+                qids = Arrays.copyOf(qids, queries * 2);
+                hitOffsets = Arrays.copyOf(hitOffsets, queries * 2 + 1);
+            }
+            if (hits + count > ordinals.length) {
+                int size = Math.max(ordinals.length * 2, hits + count);
+                ordinals = Arrays.copyOf(ordinals, size);
+                scores = Arrays.copyOf(scores, size);
+            }
+            qids[queries] = qid;
+            hitOffsets[queries++] = hits;
+        }
+
+        private void addHit(int ordinal, float score) {
+            ordinals[hits] = ordinal;
+            scores[hits++] = score;
+        }
+
+        private int ordinal(String docno) {
+            return ordinalByDocno.computeIfAbsent(docno, d -> {
+                docnoTable.add(d);
+                return docnoTable.size() - 1;
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            hitOffsets[queries] = hits;
+
+            byte[] tag = runTag.getBytes(StandardCharsets.UTF_8);
+            int[] docnoOffsets = new int[docnoTable.size() + 1];
+            byte[][] docnoBytes = new byte[docnoTable.size()][];
+            for (int i = 0; i < docnoBytes.length; i++) {
+                docnoBytes[i] = docnoTable.get(i).getBytes(StandardCharsets.UTF_8);
+                docnoOffsets[i + 1] = docnoOffsets[i] + docnoBytes[i].length;
+            }
+
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ChannelOutput out = new ChannelOutput(channel);
+                out.putInts(new int[] {MAGIC, VERSION, queries, hits, docnoBytes.length, tag.length}, 6);
+                out.putBytes(tag);
+                out.pad();
+                out.putInts(docnoOffsets, docnoOffsets.length);
+                for (byte[] b : docnoBytes) out.putBytes(b);
+                out.pad();
+                out.putInts(qids, queries);
+                out.putInts(hitOffsets, queries + 1);
+                out.putInts(ordinals, hits);
+                out.putFloats(scores, hits);
+                out.finish();
+                channel.force(false);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /** Drops the run without writing it, e.g. after its search failed; an earlier file at the path stays. */
+        public void abort() throws IOException {
+            closed = true;
+            Files.deleteIfExists(path.resolveSibling(path.getFileName() + ".tmp"));
+        }
+    }
+
+    // little-endian writes through one direct buffer, checksummed as they are flushed
+    private static final class ChannelOutput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+        private long written;
+
+        ChannelOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInts(int[] values, int count) throws IOException {
+            for (int i = 0; i < count; ) {
+                if (buffer.remaining() < Integer.BYTES) flush();
+                int n = Math.min(count - i, buffer.remaining() / Integer.BYTES);
+                buffer.asIntBuffer().put(values, i, n);
+                buffer.position(buffer.position() + n * Integer.BYTES);
+                i += n;
+            }
+        }
+
+        void putFloats(float[] values, int count) throws IOException {
+            for (int i = 0; i < count; ) {
+                if (buffer.remaining() < Float.BYTES) flush();
+                int n = Math.min(count - i, buffer.remaining() / Float.BYTES);
+                buffer.asFloatBuffer().put(values, i, n);
+                buffer.position(buffer.position() + n * Float.BYTES);
+                i += n;
+            }
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length; ) {
+                if (!buffer.hasRemaining()) flush();
+                int n = Math.min(bytes.length - i, buffer.remaining());
+                buffer.put(bytes, i, n);
+                i += n;
+            }
+        }
+
+        // to the next multiple of 4 bytes
+        void pad() throws IOException {
+            while ((written + buffer.position()) % 4 != 0) {
+                if (!buffer.hasRemaining()) flush();
+                buffer.put((byte) 0);
+            }
+        }
+
+        // appends the checksum of everything written so far
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            written += buffer.remaining();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.cran;
+
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.IOException;
+
+/**
+ * Receives the ranked hits of a run, one query at a time and in qid order.
+ * Implementations write a TREC file ({@link TrecRunWriter}) or evaluate in memory
+ * ({@link TrecEvaluator.Run}).
+ */
+@FunctionalInterface
+public interface RunSink {
+    void write(int qid, ScoreDoc[] hits) throws IOException;
+
+    /** Where searchers record stage latencies for this run; {@link StageTimer#NONE} unless someone is measuring. */
+    default StageTimer timer() {
+        return StageTimer.NONE;
+    }
+
+    /** Sends every query to both sinks; timings go to the first sink's timer. */
+    static RunSink tee(RunSink first, RunSink second) {
+        return new RunSink() {
+            @Override
+            public void write(int qid, ScoreDoc[] hits) throws IOException {
+                first.write(qid, hits);
+                second.write(qid, hits);
+            }
+
+            @Override
+            public StageTimer timer() {
+                return first.timer();
+            }
+        };
+    }
+
+    /** {@code sink} with stage latencies recorded into {@code timer}. */
+    static RunSink timed(RunSink sink, StageTimer timer) {
+        return new RunSink() {
+            @Override
+            public void write(int qid, ScoreDoc[] hits) throws IOException {
+                sink.write(qid, hits);
+            }
+
+            @Override
+            public StageTimer timer() {
+                return timer;
+            }
+        };
+    }
+}
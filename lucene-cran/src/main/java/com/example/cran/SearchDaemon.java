@@ -0,0 +1,408 @@
+package com.example.cran;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident search service: keeps the index open behind a SearcherManager and answers
+ * HTTP requests on the loopback interface, each on its own thread (a virtual thread
+ * when the JVM has them), so queries skip JVM startup, index open and JIT warm-up.
+ *
+ * <pre>
+ *   GET /search?q=&lt;text&gt;&amp;strategy=&lt;name&gt;&amp;k=10[&amp;parameters]
+ *   GET /stats      per-strategy stage latencies (see {@link StageTimer})
+ *   POST /docs[?wait=true]   Cranfield-format records to add or replace (NRT mode only)
+ * </pre>
+ *
+ * Strategies and their parameters, with Main's defaults:
+ * <pre>
+ *   english  analyzer=english|standard|whitespace     Searcher
+ *   bm25     k1=1.2 b=0.75                            BM25TunedSearcher
+ *   boost    title=2.0 body=1.0                       BoostedFieldSearcher
+ *   bm25f    title=2.0 body=1.0                       BoostedFieldSearcher, COMBINED
+ *   rocchio  alpha=1.0 beta=0.75 fbDocs=10 terms=15   RocchioSearcher
+ *   rerank   boost=1.0 topN=100                       RerankTitleBoostSearcher
+ * </pre>
+ *
+ * Start with {@code mvn -q exec:java -Dexec.mainClass=com.example.cran.SearchDaemon}
+ * (index path as first argument, default target/index_cran). -Dcran.port sets the port
+ * (default 8080), -Dcran.refreshMs how often a changed index is reopened (default 1000)
+ * and -Dcran.warmup a query file to run through every strategy before serving.
+ *
+ * With -Dcran.nrt=true the daemon also indexes: POSTed documents go into an {@link NrtIndex}
+ * and become searchable within -Dcran.maxStaleMs (default 1000), or before the response
+ * with wait=true. Writes are committed every -Dcran.commitMs (default 60000) and on shutdown.
+ */
+public class SearchDaemon implements Closeable {
+    public static final List<String> STRATEGIES = List.of("english", "bm25", "boost", "bm25f", "rocchio", "rerank");
+    private static final Set<String> QUERY_ANALYZERS = Set.of("english", "standard", "whitespace");
+    private static final long CLOSE_TIMEOUT_SEC = 30;
+
+    private final Path indexPath;
+    private final Closeable index;   // what the manager reads from
+    private final SearcherManager manager;
+    private final NrtIndex nrt;      // null unless the daemon takes writes
+    private final HttpServer server;
+    private final ExecutorService requests;
+    private final ScheduledExecutorService background;
+    private final Map<String, Analyzer> analyzers = new ConcurrentHashMap<>();
+    private final Map<String, StageTimer> stats = new ConcurrentHashMap<>();
+    private volatile long statsSince = System.nanoTime();
+
+    /** Serves the index in {@code dir} (closed with the daemon), reopened when it changes; port 0 picks a free port. */
+    public SearchDaemon(Path indexPath, Directory dir, int port, long refreshMs) throws IOException {
+        this(indexPath, dir, new SearcherManager(dir, null), null, port);
+        background.scheduleWithFixedDelay(() -> {
+            try {
+                manager.maybeRefresh();
+            } catch (IOException e) {
+                System.err.println("Index refresh failed: " + e);
+            }
+        }, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Serves {@code nrt} (closed with the daemon) and takes writes into it, committing every commitMs. */
+    public SearchDaemon(Path indexPath, NrtIndex nrt, int port, long commitMs) throws IOException {
+        this(indexPath, nrt, nrt.manager(), nrt, port);
+        background.scheduleWithFixedDelay(() -> {
+            try {
+                nrt.commit();
+            } catch (IOException e) {
+                System.err.println("Index commit failed: " + e);
+            }
+        }, commitMs, commitMs, TimeUnit.MILLISECONDS);
+    }
+
+    private SearchDaemon(Path indexPath, Closeable index, SearcherManager manager, NrtIndex nrt, int port) throws IOException {
+        this.indexPath = indexPath;
+        this.index = index;
+        this.manager = manager;
+        this.nrt = nrt;
+        this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, nrt == null ? "searcher-refresh" : "index-commit");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.requests = newRequestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(requests);
+        server.createContext("/search", ex -> respond(ex, () -> searchJson(parameters(ex))));
+        server.createContext("/stats", ex -> respond(ex, this::statsJson));
+        if (nrt != null) server.createContext("/docs", ex -> respond(ex, () -> indexJson(ex)));
+        server.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path indexPath = Paths.get(args.length > 0 ? args[0] : "target/index_cran");
+        int port = Integer.getInteger("cran.port", 8080);
+        Directory dir = IndexStorage.fromSystemProperties().open(indexPath);
+        SearchDaemon daemon;
+        if (Boolean.getBoolean("cran.nrt")) {
+            // Main's english index: term vectors on, for Rocchio feedback
+            NrtIndex nrt = new Indexer(dir, true, new Indexer.Options()).openNrt(
+                    Long.getLong("cran.maxStaleMs", 1000) / 1000.0, Long.getLong("cran.minStaleMs", 25) / 1000.0);
+            daemon = new SearchDaemon(indexPath, nrt, port, Long.getLong("cran.commitMs", 60_000));
+        } else {
+            daemon = new SearchDaemon(indexPath, dir, port, Long.getLong("cran.refreshMs", 1000));
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                // the NRT index leaves the directory to its owner; closing it twice is harmless
+                IOUtils.close(daemon, dir);
+            } catch (IOException e) {
+                System.err.println("Shutdown failed: " + e);
+            }
+        }));
+
+        String warmup = System.getProperty("cran.warmup");
+        if (warmup != null) daemon.warmUp(warmup);
+        System.out.println("Search daemon listening on http://localhost:" + daemon.port() + "/search (index " + indexPath + ")");
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** Runs every query of {@code queriesFile} through every strategy, then clears the stats. */
+    public void warmUp(String queriesFile) throws Exception {
+        long start = System.nanoTime();
+        Map<Integer, String> texts = QuerySource.load(queriesFile).texts();
+        for (String strategy : STRATEGIES) {
+            for (String text : texts.values()) {
+                if (text == null || text.isEmpty()) continue;
+                searchJson(Map.of("q", text, "strategy", strategy));
+            }
+        }
+        stats.clear();
+        statsSince = System.nanoTime();
+        System.out.println("Warmed up with " + texts.size() + " queries per strategy in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /** The JSON answer to a /search request with the given parameters. */
+    String searchJson(Map<String, String> params) throws Exception {
+        String text = params.get("q");
+        if (text == null || text.isBlank()) throw new IllegalArgumentException("missing q");
+        String strategy = params.getOrDefault("strategy", "english");
+        if (!STRATEGIES.contains(strategy)) throw new IllegalArgumentException("unknown strategy " + strategy + ", expected one of " + STRATEGIES);
+        int k = intParam(params, "k", 10);
+        if (k < 1) throw new IllegalArgumentException("k must be positive");
+
+        StageTimer timer = stats.computeIfAbsent(strategy, s -> StageTimer.bounded());
+        IndexSearcher searcher = manager.acquire();
+        try {
+            long start = timer.start();
+            ScoreDoc[] hits = rank(searcher, strategy, text, params, k, timer);
+            timer.stop(StageTimer.Stage.QUERY, start);
+            long tookNanos = System.nanoTime() - start;
+
+            DocnoLookup docnos = DocnoLookup.of(searcher.getIndexReader());
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"strategy\": \"").append(strategy).append("\", ");
+            sb.append(String.format(Locale.ROOT, "\"took_us\": %.1f, \"hits\": [", tookNanos / 1e3));
+            for (int i = 0; i < Math.min(k, hits.length); i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(String.format(Locale.ROOT, "{\"rank\": %d, \"docno\": \"%s\", \"score\": %.6f}",
+                        i + 1, json(docnos.get(hits[i].doc)), hits[i].score));
+            }
+            return sb.append("]}\n").toString();
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    private ScoreDoc[] rank(IndexSearcher searcher, String strategy, String text, Map<String, String> params, int k,
+                            StageTimer timer) throws Exception {
+        switch (strategy) {
+            case "bm25": {
+                IndexSearcher tuned = new IndexSearcher(searcher.getIndexReader());
+                tuned.setSimilarity(new BM25Similarity(floatParam(params, "k1", 1.2f), floatParam(params, "b", 0.75f)));
+                Query q = timer.time(StageTimer.Stage.PARSE, () -> parse("english", "content", text));
+                return timer.time(StageTimer.Stage.SEARCH, () -> TopKSearch.shared().search(tuned, q, k, timer).scoreDocs);
+            }
+            case "boost":
+            case "bm25f": {
+                BoostedFieldSearcher boosted = new BoostedFieldSearcher(indexPath,
+                        floatParam(params, "title", 2.0f), floatParam(params, "body", 1.0f),
+                        strategy.equals("bm25f") ? BoostedFieldSearcher.Mode.COMBINED : BoostedFieldSearcher.Mode.BOOLEAN);
+                IndexSearcher tuned = new IndexSearcher(searcher.getIndexReader());
+                BoostedFieldSearcher.configure(tuned);
+                Query q = timer.time(StageTimer.Stage.PARSE,
+                        () -> boosted.query(parse("english", "title", text), parse("english", "content", text)));
+                return timer.time(StageTimer.Stage.SEARCH, () -> TopKSearch.shared().search(tuned, q, k, timer).scoreDocs);
+            }
+            case "rocchio": {
+                RocchioSearcher rocchio = new RocchioSearcher(indexPath, floatParam(params, "alpha", 1.0f),
+                        floatParam(params, "beta", 0.75f), intParam(params, "fbDocs", 10), intParam(params, "terms", 15));
+                IndexSearcher tuned = new IndexSearcher(searcher.getIndexReader());
+                RocchioSearcher.configure(tuned);
+                Query q = timer.time(StageTimer.Stage.PARSE, () -> parse("english", "content", text));
+                return rocchio.search(tuned, q, terms(q), timer);
+            }
+            case "rerank": {
+                RerankTitleBoostSearcher rerank = new RerankTitleBoostSearcher(indexPath,
+                        floatParam(params, "boost", 1.0f), intParam(params, "topN", 100));
+                long t = timer.start();
+                Query contentQ = parse("english", "content", text);
+                Query titleQ = parse("english", "title", text);
+                timer.stop(StageTimer.Stage.PARSE, t);
+                return rerank.search(searcher, text, contentQ, titleQ, timer);
+            }
+            default: {
+                String analyzer = params.getOrDefault("analyzer", "english");
+                if (!QUERY_ANALYZERS.contains(analyzer)) {
+                    throw new IllegalArgumentException("analyzer must be one of " + QUERY_ANALYZERS + " for this index");
+                }
+                Query q = timer.time(StageTimer.Stage.PARSE, () -> parse(analyzer, "content", text));
+                return timer.time(StageTimer.Stage.SEARCH, () -> TopKSearch.shared().search(searcher, q, k, timer).scoreDocs);
+            }
+        }
+    }
+
+    // parsed the way QuerySource parses cran.qry; QueryParser isn't thread-safe, analyzers are
+    private Query parse(String analyzerName, String field, String text) throws Exception {
+        QueryParser parser = new QueryParser(field, analyzers.computeIfAbsent(analyzerName, Analyzers::forName));
+        parser.setDefaultOperator(QueryParser.Operator.OR);
+        return parser.parse(QueryParser.escape(text));
+    }
+
+    private static Set<BytesRef> terms(Query q) {
+        Set<Term> collected = new HashSet<>();
+        q.visit(QueryVisitor.termCollector(collected));
+        Set<BytesRef> bytes = new HashSet<>();
+        for (Term t : collected) bytes.add(t.bytes());
+        return bytes;
+    }
+
+    /** Adds or replaces the Cranfield records in the request body; wait=true returns once they are searchable. */
+    private String indexJson(HttpExchange ex) throws Exception {
+        if (!ex.getRequestMethod().equals("POST")) throw new IllegalArgumentException("POST documents in Cranfield format (.I/.T/.A/.B/.W)");
+        boolean wait = Boolean.parseBoolean(parameters(ex).get("wait"));
+        long start = System.nanoTime();
+        int count = 0;
+        long gen = -1;
+        try (CranDocReader docs = new CranDocReader(ex.getRequestBody())) {
+            while (docs.hasNext()) {
+                gen = nrt.update(docs.next());
+                count++;
+            }
+        }
+        if (count == 0) throw new IllegalArgumentException("no documents in the request body");
+        if (wait) nrt.waitForGeneration(gen);
+        return String.format(Locale.ROOT, "{\"indexed\": %d, \"generation\": %d, \"visible\": %b, \"took_us\": %.1f}\n",
+                count, gen, wait, (System.nanoTime() - start) / 1e3);
+    }
+
+    private String statsJson() {
+        StringBuilder sb = new StringBuilder();
+        long since = statsSince;
+        sb.append(String.format(Locale.ROOT, "{\"uptime_s\": %.1f, \"strategies\": [", (System.nanoTime() - since) / 1e9));
+        String sep = "\n";
+        for (Map.Entry<String, StageTimer> e : new TreeMap<>(stats).entrySet()) {
+            // throughput over the time the daemon has been serving
+            e.getValue().setWallNanos(System.nanoTime() - since);
+            sb.append(sep).append(e.getValue().toJson(e.getKey()).trim());
+            sep = ",\n";
+        }
+        if (nrt != null) {
+            // index and refresh latencies of the writes taken so far
+            nrt.stats().setWallNanos(System.nanoTime() - since);
+            sb.append(sep).append(nrt.stats().toJson("ingest").trim());
+        }
+        return sb.append("\n]}\n").toString();
+    }
+
+    @FunctionalInterface
+    private interface Response {
+        String body() throws Exception;
+    }
+
+    private static void respond(HttpExchange ex, Response response) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = response.body();
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = "{\"error\": \"" + json(e.getMessage()) + "\"}\n";
+        } catch (Exception e) {
+            status = 500;
+            body = "{\"error\": \"" + json(String.valueOf(e)) + "\"}\n";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parameters(HttpExchange ex) {
+        Map<String, String> params = new HashMap<>();
+        String query = ex.getRequestURI().getRawQuery();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private static int intParam(Map<String, String> params, String name, int def) {
+        String v = params.get(name);
+        try {
+            return v == null ? def : Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer, got " + v);
+        }
+    }
+
+    private static float floatParam(Map<String, String> params, String name, float def) {
+        String v = params.get(name);
+        try {
+            return v == null ? def : Float.parseFloat(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number, got " + v);
+        }
+    }
+
+    private static String json(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // a virtual thread per request on Java 21+, a cached pool before that
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop(0);
+        requests.shutdown();
+        background.shutdownNow();
+        try {
+            // requests still running hold searchers from the manager; let them finish first
+            if (!requests.awaitTermination(CLOSE_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                System.err.println("Requests still running after " + CLOSE_TIMEOUT_SEC + " s, closing the index anyway");
+                requests.shutdownNow();
+            }
+            background.awaitTermination(CLOSE_TIMEOUT_SEC, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (nrt == null) manager.close();
+        index.close();
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.cran;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Sibling indexes of the collection, one per analyzer, so each query-side analyzer
+ * searches text that was analyzed the same way.
+ *
+ * Every stale variant is written concurrently from a single parse of cran.all.1400
+ * ({@link DocumentFanOut}): the parsing thread hands each document to one bounded queue
+ * per variant and each variant's Indexer drains its own queue. Variants that are already up to date with
+ * the source file are skipped, like {@link Indexer#sync}.
+ */
+public final class ShadowIndexes {
+    /** Analyzers the searchers can query with. */
+    public static final String[] ANALYZERS = {"english", "ngram", "synonym", "standard", "whitespace"};
+
+    private ShadowIndexes() {}
+
+    /** The english variant is the main index itself; the others sit next to it, e.g. index_cran_ngram. */
+    public static Path pathFor(Path indexPath, String analyzerName) {
+        String name = analyzerName.toLowerCase(Locale.ROOT);
+        if (name.equals("english")) return indexPath;
+        return indexPath.resolveSibling(indexPath.getFileName() + "_" + name);
+    }
+
+    /** What happened to one variant; millis is 0 when it was already up to date. */
+    public static final class Report {
+        public final String analyzer;
+        public final String action;
+        public final long millis;
+        public final long sizeBytes;
+
+        Report(String analyzer, String action, long millis, long sizeBytes) {
+            this.analyzer = analyzer;
+            this.action = action;
+            this.millis = millis;
+            this.sizeBytes = sizeBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-10s %-8s %7d ms %8.2f MB", analyzer, action, millis, sizeBytes / (1024.0 * 1024.0));
+        }
+    }
+
+    /** Brings every variant in line with the parser's collection and prints one line per variant. */
+    public static List<Report> sync(CranfieldParser parser, List<Indexer> variants) throws Exception {
+        String sourceHash = Indexer.sha256(parser.docsFile().toPath());
+        int n = variants.size();
+        Indexer.Plan[] plans = new Indexer.Plan[n];
+        long[] millis = new long[n];
+        List<Integer> stale = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            plans[i] = variants.get(i).plan(sourceHash);
+            if (plans[i] != Indexer.Plan.SKIP) stale.add(i);
+        }
+
+        if (!stale.isEmpty()) {
+            build(parser, variants, plans, millis, stale, sourceHash);
+        }
+
+        List<Report> reports = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Indexer indexer = variants.get(i);
+            reports.add(new Report(indexer.analyzerName(), plans[i].name().toLowerCase(Locale.ROOT), millis[i], indexer.sizeInBytes()));
+        }
+        System.out.println("Shadow indexes (analyzer, action, build time, size):");
+        for (Report r : reports) System.out.println("  " + r);
+        return reports;
+    }
+
+    private static void build(CranfieldParser parser, List<Indexer> variants, Indexer.Plan[] plans, long[] millis,
+                              List<Integer> stale, String sourceHash) throws Exception {
+        List<DocumentFanOut.Writer> writers = new ArrayList<>();
+        for (int i : stale) {
+            writers.add(docs -> {
+                long start = System.nanoTime();
+                variants.get(i).apply(plans[i], docs, sourceHash);
+                millis[i] = (System.nanoTime() - start) / 1_000_000;
+            });
+        }
+        // every variant gets every document
+        int[] all = IntStream.range(0, writers.size()).toArray();
+        try (Stream<CranfieldParser.CranDoc> docs = parser.streamDocs()) {
+            DocumentFanOut.run(docs.iterator(), writers, (d, seq) -> all, new Indexer.Options().queueSize);
+        }
+    }
+}
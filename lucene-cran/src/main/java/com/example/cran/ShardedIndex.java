@@ -0,0 +1,257 @@
+package com.example.cran;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * The collection split over N independent shard indexes, searched like N nodes would be:
+ * a coordinator sends each query to every shard concurrently and merges the per-shard
+ * top-k lists with {@link TopDocs#merge}.
+ *
+ * Shards score with collection-wide statistics (document frequencies, lengths, counts)
+ * instead of their own, so a document scores exactly as it would in a single index and
+ * scores from different shards compare. {@link #reader()} views all shards as one reader
+ * whose doc ids the merged hits use, so run writers and the evaluator resolve docnos as usual.
+ */
+public final class ShardedIndex implements Closeable {
+    /** How documents are assigned to shards. */
+    public enum Partition {
+        /** by docno hash: a document always lands on the same shard, whatever the file order */
+        HASH,
+        /** in turn, by position in the collection: shards differ in size by at most one document */
+        ROUND_ROBIN;
+
+        int shardOf(CranfieldParser.CranDoc d, long seq, int shards) {
+            return this == HASH ? Math.floorMod(d.docno.hashCode(), shards) : (int) (seq % shards);
+        }
+    }
+
+    /** Shard {@code shard} of {@code shards}, next to the main index, e.g. index_cran_hash4_s0. */
+    public static Path shardPath(Path indexPath, Partition partition, int shards, int shard) {
+        return indexPath.resolveSibling(indexPath.getFileName() + "_" + partition.name().toLowerCase(Locale.ROOT) + shards + "_s" + shard);
+    }
+
+    /**
+     * Brings every shard in line with the parser's collection, from a single parse that
+     * routes each document to its shard; up-to-date shards are skipped, like {@link Indexer#sync}.
+     */
+    public static void sync(CranfieldParser parser, List<Indexer> shards, Partition partition) throws Exception {
+        long start = System.nanoTime();
+        String sourceHash = Indexer.sha256(parser.docsFile().toPath());
+        int n = shards.size();
+        Indexer.Plan[] plans = new Indexer.Plan[n];
+        boolean stale = false;
+        for (int i = 0; i < n; i++) {
+            plans[i] = shards.get(i).plan(sourceHash);
+            stale |= plans[i] != Indexer.Plan.SKIP;
+        }
+        if (!stale) {
+            System.out.println("Shards are up to date with " + parser.docsFile().getName() + ", skipping indexing");
+            return;
+        }
+
+        // every shard sees its whole partition, so an UPDATE also removes documents that moved away
+        try (Stream<CranfieldParser.CranDoc> docs = parser.streamDocs()) {
+            write(docs.iterator(), shards, plans, sourceHash, partition);
+        }
+        System.out.printf(Locale.ROOT, "Indexed %d shards (%s) in %d ms%n", n, partition, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** Rebuilds every shard from {@code docs}, e.g. a synthetic collection. */
+    public static void index(Iterator<CranfieldParser.CranDoc> docs, List<Indexer> shards, Partition partition) throws Exception {
+        Indexer.Plan[] plans = new Indexer.Plan[shards.size()];
+        Arrays.fill(plans, Indexer.Plan.REBUILD);
+        write(docs, shards, plans, null, partition);
+    }
+
+    private static void write(Iterator<CranfieldParser.CranDoc> docs, List<Indexer> shards, Indexer.Plan[] plans,
+                              String sourceHash, Partition partition) throws Exception {
+        int n = shards.size();
+        List<DocumentFanOut.Writer> writers = new ArrayList<>();
+        int[][] targets = new int[n][];
+        for (int i = 0; i < n; i++) {
+            int shard = i;
+            targets[i] = new int[] {i};
+            writers.add(shardDocs -> shards.get(shard).apply(plans[shard], shardDocs, sourceHash));
+        }
+        DocumentFanOut.run(docs, writers, (d, seq) -> targets[partition.shardOf(d, seq, n)], new Indexer.Options().queueSize);
+    }
+
+    private final Directory[] dirs;
+    private final DirectoryReader[] readers;
+    private final MultiReader reader;
+    private final int[] docBases;
+    private final IndexSearcher[] searchers;
+    private final ExecutorService fanOut;
+
+    private final Map<Term, TermStatistics> termStats = new ConcurrentHashMap<>();
+    private final Map<String, Optional<CollectionStatistics>> collectionStats = new ConcurrentHashMap<>();
+
+    /** Opens the shards in {@code dirs} (closed with this index), one search thread per shard. */
+    public ShardedIndex(Directory... dirs) throws IOException {
+        this.dirs = dirs.clone();
+        this.readers = new DirectoryReader[dirs.length];
+        try {
+            for (int i = 0; i < dirs.length; i++) readers[i] = DirectoryReader.open(dirs[i]);
+            this.reader = new MultiReader(readers, false);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(readers);
+            throw e;
+        }
+
+        this.docBases = new int[dirs.length];
+        this.searchers = new IndexSearcher[dirs.length];
+        int base = 0;
+        for (int i = 0; i < dirs.length; i++) {
+            docBases[i] = base;
+            base += readers[i].maxDoc();
+            searchers[i] = new ShardSearcher(readers[i]);
+        }
+        this.fanOut = Executors.newFixedThreadPool(dirs.length);
+    }
+
+    public int shards() {
+        return readers.length;
+    }
+
+    /** All shards as one reader; merged hits carry its doc ids. */
+    public IndexReader reader() {
+        return reader;
+    }
+
+    /** The top {@code n} over all shards, searched in parallel; each shard returns its own top {@code n}. */
+    public TopDocs search(Query q, int n, StageTimer timer) throws IOException {
+        List<Future<TopDocs>> pending = new ArrayList<>(searchers.length);
+        for (IndexSearcher searcher : searchers) {
+            pending.add(fanOut.submit(() -> TopKSearch.shared().search(searcher, q, n, timer)));
+        }
+        TopDocs[] perShard = new TopDocs[searchers.length];
+        for (int i = 0; i < perShard.length; i++) {
+            perShard[i] = get(pending.get(i));
+            for (ScoreDoc sd : perShard[i].scoreDocs) sd.shardIndex = i;
+        }
+
+        // ties go to the lower shard, then the lower doc id
+        TopDocs merged = TopDocs.merge(n, perShard);
+        for (ScoreDoc sd : merged.scoreDocs) sd.doc += docBases[sd.shardIndex];
+        return merged;
+    }
+
+    public TopDocs search(Query q, int n) throws IOException {
+        return search(q, n, StageTimer.NONE);
+    }
+
+    /** The english baseline ({@link Searcher}) over the shards; {@code sink} should resolve docnos against {@link #reader()}. */
+    public void search(String queriesFile, RunSink sink) throws Exception {
+        QuerySource source = QuerySource.load(queriesFile);
+        StageTimer timer = sink.timer();
+        Map<Integer, Query> parsed = source.parsed("english", "content", timer);
+
+        try (QueryRunner runner = QueryRunner.fromSystemProperties()) {
+            runner.run(source.texts(),
+                    (qid, qtext) -> timer.time(StageTimer.Stage.SEARCH, () -> search(parsed.get(qid), 1000, timer).scoreDocs), sink);
+        }
+    }
+
+    private static TopDocs get(Future<TopDocs> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for a shard", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("shard search failed", e.getCause());
+        }
+    }
+
+    // collection-wide statistics: sums over every shard, cached since the readers never change
+    private TermStatistics globalTermStatistics(Term term) {
+        return termStats.computeIfAbsent(term, t -> {
+            try {
+                long docFreq = 0, totalTermFreq = 0;
+                for (DirectoryReader r : readers) {
+                    docFreq += r.docFreq(t);
+                    totalTermFreq += r.totalTermFreq(t);
+                }
+                return new TermStatistics(t.bytes(), docFreq, totalTermFreq);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private CollectionStatistics globalCollectionStatistics(String field) {
+        return collectionStats.computeIfAbsent(field, f -> {
+            try {
+                long maxDoc = 0, docCount = 0, sumTotalTermFreq = 0, sumDocFreq = 0;
+                for (DirectoryReader r : readers) {
+                    maxDoc += r.maxDoc();
+                    docCount += r.getDocCount(f);
+                    sumTotalTermFreq += r.getSumTotalTermFreq(f);
+                    sumDocFreq += r.getSumDocFreq(f);
+                }
+                return docCount == 0 ? Optional.empty()
+                        : Optional.of(new CollectionStatistics(f, maxDoc, docCount, sumTotalTermFreq, sumDocFreq));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).orElse(null);
+    }
+
+    // a shard that scores with the statistics of the whole collection
+    private final class ShardSearcher extends IndexSearcher {
+        ShardSearcher(IndexReader reader) {
+            super(reader);
+        }
+
+        @Override
+        public TermStatistics termStatistics(Term term, int docFreq, long totalTermFreq) {
+            return globalTermStatistics(term);
+        }
+
+        @Override
+        public CollectionStatistics collectionStatistics(String field) {
+            return globalCollectionStatistics(field);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        fanOut.shutdownNow();
+        try {
+            IOUtils.close(reader);
+            IOUtils.close(readers);
+        } finally {
+            IOUtils.close(dirs);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.cran;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-stage latencies of one run. Searchers time their stages with {@link #time} (or
+ * start/stop) and the report gives count, total, mean, p50/p95/p99 and max per stage,
+ * plus run throughput. Named counters (e.g. documents scored) are summed alongside.
+ *
+ * A batch timer keeps every sample (a run is a few hundred queries), so percentiles are
+ * exact. Timers that live as long as a process, e.g. a daemon's, come from {@link #bounded()}:
+ * they count samples in fixed log-scale buckets, so memory stays constant and percentiles are
+ * within about 3%. Safe to record from several query threads. {@link #NONE} records nothing.
+ */
+public final class StageTimer {
+
+    public enum Stage {
+        /**
+         * turning query text into Lucene queries, one sample per query; queries parsed once
+         * and shared through {@link QuerySource} report the time their first parse took
+         */
+        PARSE,
+        /** retrieval of the final (or only) ranked list */
+        SEARCH,
+        /** feedback first pass and term extraction */
+        FEEDBACK,
+        /** choosing and weighting expansion terms */
+        EXPAND,
+        /** second-pass rescoring of candidates */
+        RERANK,
+        /** handing a ranked list to the sink (evaluation, run file) */
+        WRITE,
+        /** one query end to end, excluding WRITE */
+        QUERY,
+        /** adding, updating or deleting one document in a live index */
+        INDEX,
+        /** reopening a live index's searcher so it sees new writes */
+        REFRESH;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public static final StageTimer NONE = new StageTimer(false, false);
+
+    private final boolean enabled;
+    private final Samples[] samples = new Samples[Stage.values().length];
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private volatile long wallNanos;
+
+    public StageTimer() {
+        this(true, false);
+    }
+
+    private StageTimer(boolean enabled, boolean bounded) {
+        this.enabled = enabled;
+        for (int i = 0; i < samples.length; i++) samples[i] = bounded ? new Histogram() : new ExactSamples();
+    }
+
+    /** A timer whose memory doesn't grow with the number of samples, for recording indefinitely. */
+    public static StageTimer bounded() {
+        return new StageTimer(true, true);
+    }
+
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    public void stop(Stage stage, long start) {
+        if (enabled) samples[stage.ordinal()].add(System.nanoTime() - start);
+    }
+
+    /** Records a duration measured elsewhere, e.g. a cached parse. */
+    public void record(Stage stage, long nanos) {
+        if (enabled) samples[stage.ordinal()].add(nanos);
+    }
+
+    /** Some work whose duration is recorded by {@link #time}. */
+    @FunctionalInterface
+    public interface Timed<T> {
+        T run() throws Exception;
+    }
+
+    /** Runs {@code work} and records its duration under {@code stage}. */
+    public <T> T time(Stage stage, Timed<T> work) throws Exception {
+        long t = start();
+        T result = work.run();
+        stop(stage, t);
+        return result;
+    }
+
+    /** Adds {@code n} to the counter {@code name}. */
+    public void count(String name, long n) {
+        if (enabled) counters.computeIfAbsent(name, k -> new LongAdder()).add(n);
+    }
+
+    public long counter(String name) {
+        LongAdder c = counters.get(name);
+        return c == null ? 0 : c.sum();
+    }
+
+    /** Wall-clock time of the whole run, for throughput. */
+    public void setWallNanos(long nanos) {
+        this.wallNanos = nanos;
+    }
+
+    public long queries() {
+        return samples[Stage.QUERY.ordinal()].size();
+    }
+
+    public double queriesPerSecond() {
+        return wallNanos > 0 ? queries() / (wallNanos / 1e9) : 0.0;
+    }
+
+    /** {"tag":..., "queries":..., "wall_ms":..., "qps":..., "stages":{"search":{...}, ...}, "counters":{...}} with times in microseconds. */
+    public String toJson(String tag) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"tag\": \"").append(tag).append("\",\n");
+        sb.append("  \"queries\": ").append(queries()).append(",\n");
+        sb.append("  \"wall_ms\": ").append(fmt(wallNanos / 1e6)).append(",\n");
+        sb.append("  \"qps\": ").append(fmt(queriesPerSecond())).append(",\n");
+        sb.append("  \"stages\": {");
+        String sep = "\n";
+        for (Stage s : Stage.values()) {
+            Summary v = samples[s.ordinal()].summary();
+            if (v.count == 0) continue;
+            sb.append(sep).append("    \"").append(s.label()).append("\": {")
+                    .append("\"count\": ").append(v.count)
+                    .append(", \"total_ms\": ").append(fmt(v.total / 1e6))
+                    .append(", \"mean_us\": ").append(fmt(v.total / 1e3 / v.count))
+                    .append(", \"p50_us\": ").append(fmt(v.p50 / 1e3))
+                    .append(", \"p95_us\": ").append(fmt(v.p95 / 1e3))
+                    .append(", \"p99_us\": ").append(fmt(v.p99 / 1e3))
+                    .append(", \"max_us\": ").append(fmt(v.max / 1e3))
+                    .append('}');
+            sep = ",\n";
+        }
+        sb.append("\n  }");
+        if (!counters.isEmpty()) {
+            sb.append(",\n  \"counters\": {");
+            sep = "\n";
+            for (Map.Entry<String, LongAdder> c : counters.entrySet()) {
+                sb.append(sep).append("    \"").append(c.getKey()).append("\": ").append(c.getValue().sum());
+                sep = ",\n";
+            }
+            sb.append("\n  }");
+        }
+        sb.append("\n}\n");
+        return sb.toString();
+    }
+
+    public static final String CSV_HEADER = "tag,stage,count,total_ms,mean_us,p50_us,p95_us,p99_us,max_us,qps";
+
+    /** One CSV row per recorded stage, matching {@link #CSV_HEADER}. */
+    public String toCsvRows(String tag) {
+        StringBuilder sb = new StringBuilder();
+        String qps = fmt(queriesPerSecond());
+        for (Stage s : Stage.values()) {
+            Summary v = samples[s.ordinal()].summary();
+            if (v.count == 0) continue;
+            sb.append(tag).append(',').append(s.label()).append(',').append(v.count)
+                    .append(',').append(fmt(v.total / 1e6))
+                    .append(',').append(fmt(v.total / 1e3 / v.count))
+                    .append(',').append(fmt(v.p50 / 1e3))
+                    .append(',').append(fmt(v.p95 / 1e3))
+                    .append(',').append(fmt(v.p99 / 1e3))
+                    .append(',').append(fmt(v.max / 1e3))
+                    .append(',').append(qps).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public void writeJson(String file, String tag) throws IOException {
+        write(file, toJson(tag));
+    }
+
+    static void write(String file, String content) throws IOException {
+        File parent = new File(file).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(file))) {
+            w.write(content);
+        }
+    }
+
+    private static String fmt(double v) {
+        return String.format(Locale.ROOT, "%.1f", v);
+    }
+
+    // what the reports print for one stage, in nanoseconds
+    private static final class Summary {
+        final long count;
+        final double total;
+        final long p50, p95, p99, max;
+
+        Summary(long count, double total, long p50, long p95, long p99, long max) {
+            this.count = count;
+            this.total = total;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+    }
+
+    private interface Samples {
+        void add(long v);
+
+        long size();
+
+        Summary summary();
+    }
+
+    private static final class ExactSamples implements Samples {
+        private long[] values = new long[256];
+        private int size;
+
+        @Override
+        public synchronized void add(long v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        @Override
+        public synchronized long size() {
+            return size;
+        }
+
+        @Override
+        public Summary summary() {
+            long[] v;
+            synchronized (this) {
+                v = Arrays.copyOf(values, size);
+            }
+            if (v.length == 0) return new Summary(0, 0, 0, 0, 0, 0);
+            Arrays.sort(v);
+            double total = 0;
+            for (long x : v) total += x;
+            return new Summary(v.length, total, percentile(v, 50), percentile(v, 95), percentile(v, 99), v[v.length - 1]);
+        }
+
+        // nearest-rank percentile of sorted values
+        private static long percentile(long[] sorted, int p) {
+            int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+
+    /**
+     * Counts per log-linear bucket: values below 32 ns exactly, larger ones in 32 buckets per
+     * power of two. A percentile reports its bucket's upper bound (capped at the exact max).
+     */
+    private static final class Histogram implements Samples {
+        private static final int SUB_BITS = 5;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = SUB + (Long.SIZE - SUB_BITS) * SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder total = new DoubleAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        @Override
+        public void add(long v) {
+            v = Math.max(0, v);
+            counts.incrementAndGet(bucket(v));
+            count.increment();
+            total.add(v);
+            max.accumulate(v);
+        }
+
+        @Override
+        public long size() {
+            return count.sum();
+        }
+
+        @Override
+        public Summary summary() {
+            long[] c = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) n += c[i] = counts.get(i);
+            if (n == 0) return new Summary(0, 0, 0, 0, 0, 0);
+            long m = max.get();
+            return new Summary(n, total.sum(), percentile(c, n, 50, m), percentile(c, n, 95, m), percentile(c, n, 99, m), m);
+        }
+
+        private static int bucket(long v) {
+            if (v < SUB) return (int) v;
+            int shift = Long.SIZE - Long.numberOfLeadingZeros(v) - 1 - SUB_BITS;
+            return SUB + shift * SUB + (int) ((v >>> shift) - SUB);
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB) return bucket;
+            int shift = (bucket - SUB) / SUB;
+            long top = SUB + (bucket - SUB) % SUB;
+            long bound = ((top + 1) << shift) - 1;
+            return bound < 0 ? Long.MAX_VALUE : bound; // the topmost buckets overflow
+        }
+
+        // nearest-rank percentile over the bucket counts
+        private static long percentile(long[] counts, long n, int p, long max) {
+            long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+    }
+}
@@ -2,42 +2,55 @@ package com.example.cran;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.FlattenGraphFilter;
 import org.apache.lucene.analysis.core.LowerCaseFilter;
 import org.apache.lucene.analysis.en.EnglishPossessiveFilter;
 import org.apache.lucene.analysis.standard.StandardTokenizer;
 import org.apache.lucene.analysis.synonym.SynonymGraphFilter;
 import org.apache.lucene.analysis.synonym.SynonymMap;
-import org.apache.lucene.util.CharsRef;
 
 public class SynonymAnalyzer extends Analyzer {
 
-    private static final SynonymMap synonymMap;
-
-    static {
-        try {
-            SynonymMap.Builder builder = new SynonymMap.Builder(true);
-
-            // ✨ Add domain-specific synonyms
-            builder.add(new CharsRef("airplane"), new CharsRef("aircraft"), true);
-            builder.add(new CharsRef("aeroplane"), new CharsRef("aircraft"), true);
-            builder.add(new CharsRef("lift"), new CharsRef("aerodynamic"), true);
-            builder.add(new CharsRef("jet"), new CharsRef("aircraft"), true);
-            builder.add(new CharsRef("engine"), new CharsRef("propulsion"), true);
-            builder.add(new CharsRef("rocket"), new CharsRef("missile"), true);
-            builder.add(new CharsRef("wing"), new CharsRef("airfoil"), true);
-
-            synonymMap = builder.build();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to build synonym map", e);
-        }
+    /** Bump when {@link #tokens} or the filters after it change; compiled maps and indexes key on it. */
+    static final int CHAIN_VERSION = 1;
+
+    private final SynonymMap synonymMap;
+    private final boolean flatten;
+
+    /** Uses the thesaurus configured for this JVM (see {@link SynonymFst}). */
+    public SynonymAnalyzer() {
+        this(SynonymFst.shared().map());
+    }
+
+    public SynonymAnalyzer(SynonymMap synonymMap) {
+        this(synonymMap, false);
+    }
+
+    /**
+     * @param flatten squash the synonym graph into a linear token stream, which an index
+     *                needs when multi-word rules produce tokens spanning several positions
+     */
+    public SynonymAnalyzer(SynonymMap synonymMap, boolean flatten) {
+        this.synonymMap = synonymMap;
+        this.flatten = flatten;
+    }
+
+    /** The analyzer to write an index with, using the thesaurus configured for this JVM. */
+    public static SynonymAnalyzer forIndexing() {
+        return new SynonymAnalyzer(SynonymFst.shared().map(), true);
     }
 
     @Override
     protected TokenStreamComponents createComponents(String fieldName) {
         StandardTokenizer tokenizer = new StandardTokenizer();
-        TokenStream filter = new EnglishPossessiveFilter(tokenizer);
-        filter = new LowerCaseFilter(filter);
-        filter = new SynonymGraphFilter(filter, synonymMap, true);
+        TokenStream filter = new SynonymGraphFilter(tokens(tokenizer), synonymMap, true);
+        if (flatten) filter = new FlattenGraphFilter(filter);
         return new TokenStreamComponents(tokenizer, filter);
     }
+
+    // the chain up to the synonym filter; thesaurus rules are analyzed with it too
+    static TokenStream tokens(StandardTokenizer tokenizer) {
+        TokenStream filter = new EnglishPossessiveFilter(tokenizer);
+        return new LowerCaseFilter(filter);
+    }
 }
@@ -0,0 +1,203 @@
+package com.example.cran;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.synonym.SolrSynonymParser;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.synonym.WordnetSynonymParser;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.OffHeapFSTStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Synonyms for {@link SynonymAnalyzer}, read from a thesaurus file and compiled once into
+ * a serialized FST that later runs memory-map instead of rebuilding.
+ *
+ * The thesaurus is -Dcran.synonyms (default: cran/synonyms.txt on the classpath), in Solr
+ * format, or WordNet prolog format when the file ends in ".pl". Compiled maps are stored
+ * in -Dcran.synonymCache (default: java.io.tmpdir/cran-synonyms) under the SHA-256 of the
+ * thesaurus, its format and {@link SynonymAnalyzer#CHAIN_VERSION}, so an edited file or rule
+ * chain gets a new artifact and an unchanged one is never recompiled.
+ * The FST stays off-heap; only the output words are loaded onto the heap.
+ */
+public final class SynonymFst {
+    private static final String CODEC = "CranSynonymFst";
+    private static final int VERSION = 0;
+
+    private static volatile SynonymFst shared;
+
+    private final SynonymMap map;
+    private final String fingerprint;
+
+    private SynonymFst(SynonymMap map, String fingerprint) {
+        this.map = map;
+        this.fingerprint = fingerprint;
+    }
+
+    public SynonymMap map() {
+        return map;
+    }
+
+    /** SHA-256 of the thesaurus the map was compiled from, its format and the rule analyzer's version. */
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    /** The synonyms configured for this JVM, compiled on first use if no artifact exists yet. */
+    public static SynonymFst shared() {
+        if (shared == null) {
+            synchronized (SynonymFst.class) {
+                if (shared == null) {
+                    try {
+                        shared = loadOrCompile();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (ParseException e) {
+                        throw new IllegalStateException("invalid synonym file", e);
+                    }
+                }
+            }
+        }
+        return shared;
+    }
+
+    private static SynonymFst loadOrCompile() throws IOException, ParseException {
+        String file = System.getProperty("cran.synonyms");
+        byte[] source;
+        if (file != null) {
+            source = Files.readAllBytes(Paths.get(file));
+        } else {
+            try (InputStream in = SynonymFst.class.getResourceAsStream("/cran/synonyms.txt")) {
+                if (in == null) throw new IOException("cran/synonyms.txt not found on the classpath");
+                source = in.readAllBytes();
+            }
+        }
+        boolean wordnet = file != null && file.endsWith(".pl");
+        String hash = sha256(source, (wordnet ? "wordnet" : "solr") + "@" + SynonymAnalyzer.CHAIN_VERSION);
+        Path cache = Paths.get(System.getProperty("cran.synonymCache",
+                Paths.get(System.getProperty("java.io.tmpdir"), "cran-synonyms").toString()));
+        Files.createDirectories(cache);
+
+        // kept open for the life of the JVM: the FST reads straight from the mapping
+        Directory dir = new MMapDirectory(cache);
+        String name = "synonyms-" + hash.substring(0, 16) + ".fst";
+        if (!Files.exists(cache.resolve(name))) {
+            long start = System.nanoTime();
+            SynonymMap map = parse(new StringReader(new String(source, StandardCharsets.UTF_8)), wordnet);
+            write(map, dir, name);
+            System.out.println("Compiled synonyms into " + cache.resolve(name) + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        return new SynonymFst(load(dir.openInput(name, IOContext.READ)), hash);
+    }
+
+    /** Parses a Solr (or WordNet) thesaurus, analyzing rules the way SynonymAnalyzer analyzes text. */
+    public static SynonymMap parse(Reader thesaurus, boolean wordnet) throws IOException, ParseException {
+        try (Analyzer ruleAnalyzer = new RuleAnalyzer()) {
+            if (wordnet) {
+                WordnetSynonymParser parser = new WordnetSynonymParser(true, true, ruleAnalyzer);
+                parser.parse(thesaurus);
+                return parser.build();
+            }
+            SolrSynonymParser parser = new SolrSynonymParser(true, true, ruleAnalyzer);
+            parser.parse(thesaurus);
+            return parser.build();
+        }
+    }
+
+    /** Writes {@code map} to {@code name} in {@code dir}; the file appears atomically. */
+    public static void write(SynonymMap map, Directory dir, String name) throws IOException {
+        String tmpName;
+        try (IndexOutput out = dir.createTempOutput(name, "tmp", IOContext.DEFAULT)) {
+            tmpName = out.getName();
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeVInt(map.maxHorizontalContext);
+            int words = map.words.size();
+            out.writeVInt(words);
+            BytesRef scratch = new BytesRef();
+            for (int i = 0; i < words; i++) {
+                map.words.get(i, scratch);
+                out.writeVInt(scratch.length);
+                out.writeBytes(scratch.bytes, scratch.offset, scratch.length);
+            }
+            out.writeByte((byte) (map.fst == null ? 0 : 1));
+            if (map.fst != null) map.fst.save(out, out);
+            CodecUtil.writeFooter(out);
+        }
+        dir.sync(List.of(tmpName));
+        dir.rename(tmpName, name);
+        dir.syncMetaData();
+    }
+
+    /**
+     * Reads a map written by {@link #write}. The FST is read off-heap from {@code in}, which
+     * must stay open as long as the map is used; it is closed here only if loading fails.
+     */
+    public static SynonymMap load(IndexInput in) throws IOException {
+        try {
+            CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+            long body = in.getFilePointer();
+            CodecUtil.retrieveChecksum(in); // validates the footer, i.e. the file isn't truncated
+            in.seek(body);
+            int maxHorizontalContext = in.readVInt();
+            int words = in.readVInt();
+            // word ords must come back in the order they were written: the FST outputs refer to them
+            BytesRefHash hash = new BytesRefHash();
+            for (int i = 0; i < words; i++) {
+                byte[] bytes = new byte[in.readVInt()];
+                in.readBytes(bytes, 0, bytes.length);
+                hash.add(new BytesRef(bytes));
+            }
+            FST<BytesRef> fst = null;
+            if (in.readByte() != 0) {
+                fst = new FST<>(in, in, ByteSequenceOutputs.getSingleton(), new OffHeapFSTStore());
+            }
+            return new SynonymMap(fst, hash, maxHorizontalContext);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static String sha256(byte[] bytes, String format) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(bytes);
+            md.update(format.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE ships SHA-256
+        }
+    }
+
+    // SynonymAnalyzer's chain up to the synonym filter
+    private static final class RuleAnalyzer extends Analyzer {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            StandardTokenizer tokenizer = new StandardTokenizer();
+            return new TokenStreamComponents(tokenizer, SynonymAnalyzer.tokens(tokenizer));
+        }
+    }
+}
@@ -1,15 +1,11 @@
 package com.example.cran;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.*;
-import org.apache.lucene.store.FSDirectory;
 
 import java.io.*;
 import java.nio.file.Path;
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class SynonymSearcher {
@@ -20,70 +16,30 @@ public class SynonymSearcher {
     }
 
     public void search(String queriesFile, String outputFile) throws Exception {
-        Analyzer analyzer = new SynonymAnalyzer();
-
-        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexPath));
-             BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile))) {
-
-            IndexSearcher searcher = new IndexSearcher(reader);
-            QueryParser parser = new QueryParser("content", analyzer);
-            parser.setDefaultOperator(QueryParser.Operator.OR); // maximize recall
-
-            Map<Integer, String> queries = parseCranQueries(queriesFile);
-
-            for (Map.Entry<Integer, String> e : queries.entrySet()) {
-                int qid = e.getKey();
-                String qtext = e.getValue();
-                if (qtext == null || qtext.isEmpty()) continue;
-
-                Query q = parser.parse(QueryParser.escape(qtext));
-                TopDocs top = searcher.search(q, 1000);
-                ScoreDoc[] hits = top.scoreDocs;
-
-                for (int i = 0; i < hits.length; i++) {
-                    Document doc = searcher.doc(hits[i].doc);
-                    String docno = doc.get("id");
-                    float score = hits[i].score;
-                    int rank = i + 1;
-                    bw.write(qid + " Q0 " + docno + " " + rank + " " + score + " run_synonym");
-                    bw.newLine();
-                }
-            }
+        try (DirectoryReader reader = DirectoryReader.open(IndexStorage.fromSystemProperties().open(indexPath))) {
+            search(reader, queriesFile, outputFile);
+        }
+    }
 
-            bw.flush();
+    /** Same as {@link #search(String, String)} but against an already open, shared reader. */
+    public void search(IndexReader reader, String queriesFile, String outputFile) throws Exception {
+        try (TrecRunWriter out = new TrecRunWriter(outputFile, reader, "run_synonym")) {
+            search(reader, queriesFile, out);
         }
     }
 
-    private static Map<Integer, String> parseCranQueries(String queriesFile) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(queriesFile));
-        Map<Integer, String> map = new LinkedHashMap<>();
-        String line;
-        int currentId = 0;
-        StringBuilder sb = null;
-        boolean inW = false;
+    /** Runs the queries and hands each ranked list to {@code sink}, in qid order. */
+    public void search(IndexReader reader, String queriesFile, RunSink sink) throws Exception {
+        QuerySource source = QuerySource.load(queriesFile);
+        StageTimer timer = sink.timer();
+        Map<Integer, Query> parsed = source.parsed("synonym", "content", timer);
 
-        while ((line = br.readLine()) != null) {
-            line = line.trim();
-            if (line.startsWith(".I")) {
-                if (currentId != 0 && sb != null) {
-                    map.put(currentId, sb.toString().trim());
-                }
-                currentId++;
-                sb = new StringBuilder();
-                inW = false;
-            } else if (line.startsWith(".W")) {
-                inW = true;
-            } else if (inW && !line.isEmpty()) {
-                if (sb.length() > 0) sb.append(" ");
-                sb.append(line);
-            }
-        }
+        try (QueryRunner runner = QueryRunner.fromSystemProperties()) {
 
-        if (currentId != 0 && sb != null) {
-            map.put(currentId, sb.toString().trim());
-        }
+            IndexSearcher searcher = runner.newSearcher(reader);
 
-        br.close();
-        return map;
+            runner.run(source.texts(),
+                    (qid, qtext) -> timer.time(StageTimer.Stage.SEARCH, () -> TopKSearch.shared().search(searcher, parsed.get(qid), 1000, timer).scoreDocs), sink);
+        }
     }
 }
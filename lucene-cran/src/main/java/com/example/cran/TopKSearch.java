@@ -0,0 +1,112 @@
+package com.example.cran;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Top-n retrieval that only counts hits as far as it has to. Once {@code totalHitsThreshold}
+ * hits are seen and the queue is full, the collector tells the scorer its minimum competitive
+ * score and WAND / MaxScore skip documents that can't make the top n. The ranked list is the
+ * same as an exhaustive search; only {@code totalHits} turns into a lower bound.
+ *
+ * Configured with -Dcran.totalHitsThreshold (default: n, i.e. prune as soon as the queue is
+ * full; IndexSearcher.search uses 1000) and -Dcran.countSkipped, which additionally counts
+ * every match so the run report can say how many documents pruning skipped.
+ */
+public final class TopKSearch {
+    public static final String DOCS_SCORED = "docs_scored";
+    public static final String DOCS_SKIPPED = "docs_skipped";
+
+    private static final TopKSearch SHARED = new TopKSearch(
+            Integer.getInteger("cran.totalHitsThreshold", -1), Boolean.getBoolean("cran.countSkipped"));
+
+    private final int totalHitsThreshold;
+    private final boolean countSkipped;
+
+    /**
+     * @param totalHitsThreshold hits counted exactly before pruning may start; negative means n
+     * @param countSkipped       also count all matches (an extra pass) to report skipped documents
+     */
+    public TopKSearch(int totalHitsThreshold, boolean countSkipped) {
+        this.totalHitsThreshold = totalHitsThreshold;
+        this.countSkipped = countSkipped;
+    }
+
+    public static TopKSearch shared() {
+        return SHARED;
+    }
+
+    /** Same hits as {@code searcher.search(q, n)}; documents scored (and skipped) are counted in {@code timer}. */
+    public TopDocs search(IndexSearcher searcher, Query q, int n, StageTimer timer) throws IOException {
+        int numHits = Math.min(n, Math.max(1, searcher.getIndexReader().maxDoc()));
+        int threshold = totalHitsThreshold < 0 ? numHits : totalHitsThreshold;
+        CountingManager manager = new CountingManager(TopScoreDocCollector.createSharedManager(numHits, null, threshold));
+        TopDocs top = searcher.search(q, manager);
+
+        timer.count(DOCS_SCORED, manager.scored);
+        if (countSkipped) timer.count(DOCS_SKIPPED, searcher.count(q) - manager.scored);
+        return top;
+    }
+
+    public TopDocs search(IndexSearcher searcher, Query q, int n) throws IOException {
+        return search(searcher, q, n, StageTimer.NONE);
+    }
+
+    private static final class CountingManager implements CollectorManager<CountingCollector, TopDocs> {
+        final CollectorManager<TopScoreDocCollector, TopDocs> top;
+        long scored;
+
+        CountingManager(CollectorManager<TopScoreDocCollector, TopDocs> top) {
+            this.top = top;
+        }
+
+        @Override
+        public CountingCollector newCollector() throws IOException {
+            return new CountingCollector(top.newCollector());
+        }
+
+        @Override
+        public TopDocs reduce(Collection<CountingCollector> collectors) throws IOException {
+            List<TopScoreDocCollector> inner = new ArrayList<>(collectors.size());
+            for (CountingCollector c : collectors) {
+                inner.add(c.top);
+                scored += c.scored;
+            }
+            return top.reduce(inner);
+        }
+    }
+
+    // counts the documents that reach collect(); scoreMode and setScorer pass through, so pruning still works
+    private static final class CountingCollector extends FilterCollector {
+        final TopScoreDocCollector top;
+        long scored;
+
+        CountingCollector(TopScoreDocCollector top) {
+            super(top);
+            this.top = top;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            return new FilterLeafCollector(super.getLeafCollector(context)) {
+                @Override
+                public void collect(int doc) throws IOException {
+                    scored++;
+                    in.collect(doc);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.cran;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * In-process replacement for the trec_eval measures we report:
+ * map, gm_map, P_5, P_10 and recall_1000.
+ *
+ * Follows trec_eval's rules so the numbers match it exactly:
+ * a document is relevant when its qrels grade is >= 1, retrieved docs are
+ * re-sorted by score descending with ties broken by docno descending, and only
+ * queries that have both results and qrels are averaged.
+ */
+public class TrecEvaluator {
+    private static final double MIN_GEO_MEAN = 0.00001;
+
+    // qid -> docno -> relevance grade
+    private final Map<Integer, Map<String, Integer>> qrels = new HashMap<>();
+    private final Map<Integer, Integer> numRel = new HashMap<>();
+
+    /** @param qrelsLines lines of the form "qid 0 docno rel", as returned by {@link CranfieldParser#loadQrels()} */
+    public TrecEvaluator(List<String> qrelsLines) {
+        for (String ln : qrelsLines) {
+            String[] parts = ln.trim().split("\\s+");
+            if (parts.length < 4) continue;
+            int qid = Integer.parseInt(parts[0]);
+            int rel = Integer.parseInt(parts[3]);
+            qrels.computeIfAbsent(qid, k -> new HashMap<>()).put(parts[2], rel);
+        }
+        for (Map.Entry<Integer, Map<String, Integer>> e : qrels.entrySet()) {
+            int n = 0;
+            for (int rel : e.getValue().values()) {
+                if (rel >= 1) n++;
+            }
+            numRel.put(e.getKey(), n);
+        }
+    }
+
+    public TrecEvaluator(CranfieldParser parser) throws IOException {
+        this(parser.loadQrels());
+    }
+
+    /** Starts evaluating a new run whose doc ids belong to {@code reader}. */
+    public Run newRun(IndexReader reader) throws IOException {
+        return new Run(reader);
+    }
+
+    /** Evaluates an existing TREC run file (qid Q0 docno rank score runid), or a binary {@link RunFile}. */
+    public Metrics evaluateRunFile(String runFile) throws IOException {
+        if (RunFile.isRunFile(Paths.get(runFile))) return evaluate(RunFile.open(Paths.get(runFile)));
+
+        Map<Integer, List<String[]>> byQuery = new TreeMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(runFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length < 6) continue;
+                byQuery.computeIfAbsent(Integer.parseInt(parts[0]), k -> new ArrayList<>()).add(parts);
+            }
+        }
+
+        Run run = new Run();
+        for (Map.Entry<Integer, List<String[]>> e : byQuery.entrySet()) {
+            List<String[]> rows = e.getValue();
+            String[] docnos = new String[rows.size()];
+            float[] scores = new float[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                docnos[i] = rows.get(i)[2];
+                scores[i] = Float.parseFloat(rows.get(i)[4]);
+            }
+            run.add(e.getKey(), docnos, scores);
+        }
+        return run.summary();
+    }
+
+    /** Evaluates a binary run straight from its columns, without parsing text. */
+    public Metrics evaluate(RunFile runFile) {
+        Run run = new Run();
+        for (int q = 0; q < runFile.queries(); q++) run.add(runFile.qid(q), runFile.docnos(q), runFile.scores(q));
+        return run.summary();
+    }
+
+    /** Measures for a single query, as trec_eval computes them. */
+    public double[] evaluateQuery(int qid, String[] docnos, float[] scores) {
+        Map<String, Integer> judged = qrels.get(qid);
+        if (judged == null || docnos.length == 0) return null;
+
+        Integer[] order = new Integer[docnos.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> {
+            if (scores[a] > scores[b]) return -1;
+            if (scores[a] < scores[b]) return 1;
+            return docnos[b].compareTo(docnos[a]);
+        });
+
+        int rel = numRel.get(qid);
+        int relRet = 0, relAt5 = 0, relAt10 = 0, relAt1000 = 0;
+        double sumPrec = 0.0;
+        for (int i = 0; i < order.length; i++) {
+            Integer grade = judged.get(docnos[order[i]]);
+            if (grade == null || grade < 1) continue;
+            relRet++;
+            sumPrec += (double) relRet / (i + 1);
+            if (i < 5) relAt5++;
+            if (i < 10) relAt10++;
+            if (i < 1000) relAt1000++;
+        }
+
+        double ap = rel > 0 ? sumPrec / rel : 0.0;
+        return new double[] {
+                ap,
+                Math.log(Math.max(ap, MIN_GEO_MEAN)),
+                relAt5 / 5.0,
+                relAt10 / 10.0,
+                rel > 0 ? (double) relAt1000 / rel : 0.0
+        };
+    }
+
+    /**
+     * Accumulates per-query measures as a {@link RunSink}. Queries without hits or
+     * without qrels are skipped, exactly as trec_eval skips them.
+     */
+    public class Run implements RunSink {
+        private final DocnoLookup docnoLookup;
+        private final double[] sums = new double[5];
+        private int numQueries = 0;
+
+        private Run(IndexReader reader) throws IOException {
+            this.docnoLookup = DocnoLookup.of(reader);
+        }
+
+        private Run() {
+            this.docnoLookup = null;
+        }
+
+        @Override
+        public void write(int qid, ScoreDoc[] hits) throws IOException {
+            String[] docnos = new String[hits.length];
+            float[] scores = new float[hits.length];
+            for (int i = 0; i < hits.length; i++) {
+                docnos[i] = docnoLookup.get(hits[i].doc);
+                scores[i] = hits[i].score;
+            }
+            add(qid, docnos, scores);
+        }
+
+        public void add(int qid, String[] docnos, float[] scores) {
+            double[] m = evaluateQuery(qid, docnos, scores);
+            if (m == null) return;
+            for (int i = 0; i < sums.length; i++) sums[i] += m[i];
+            numQueries++;
+        }
+
+        public Metrics summary() {
+            if (numQueries == 0) return new Metrics(0, 0, 0, 0, 0, 0);
+            return new Metrics(numQueries,
+                    sums[0] / numQueries,
+                    Math.exp(sums[1] / numQueries),
+                    sums[2] / numQueries,
+                    sums[3] / numQueries,
+                    sums[4] / numQueries);
+        }
+    }
+
+    /** Averaged measures of one run. */
+    public static class Metrics {
+        public final int numQueries;
+        public final double map;
+        public final double gmMap;
+        public final double p5;
+        public final double p10;
+        public final double recall1000;
+
+        public Metrics(int numQueries, double map, double gmMap, double p5, double p10, double recall1000) {
+            this.numQueries = numQueries;
+            this.map = map;
+            this.gmMap = gmMap;
+            this.p5 = p5;
+            this.p10 = p10;
+            this.recall1000 = recall1000;
+        }
+
+        /** Same layout as trec_eval's summary output. */
+        public String format() {
+            return line("map", map) + line("gm_map", gmMap) + line("P_5", p5)
+                    + line("P_10", p10) + line("recall_1000", recall1000);
+        }
+
+        // trec_eval prints with C's "%6.4f", which rounds the exact binary value half-even
+        private static String line(String name, double value) {
+            String v = new BigDecimal(value).setScale(4, RoundingMode.HALF_EVEN).toPlainString();
+            return String.format(Locale.ROOT, "%-22s\t%s\t%6s\n", name, "all", v);
+        }
+
+        public void writeTo(String metricsFile) throws IOException {
+            File parent = new File(metricsFile).getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists()) parent.mkdirs();
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(metricsFile))) {
+                writer.write(format());
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.cran;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes ranked hits in TREC run format: qid Q0 docno rank score runid.
+ * The file is written next to its destination and moved into place on {@link #close},
+ * so a run that is {@link #abort aborted} never replaces an earlier file.
+ * Not thread-safe; {@link QueryRunner} calls it from a single thread in qid order.
+ */
+public class TrecRunWriter implements RunSink, Closeable {
+    private final Path path;
+    private final Path tmp;
+    private final BufferedWriter bw;
+    private final DocnoLookup docnos;
+    private final String runTag;
+    private boolean closed;
+
+    public TrecRunWriter(String outputFile, IndexReader reader, String runTag) throws IOException {
+        this.path = Paths.get(outputFile);
+        this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        this.bw = Files.newBufferedWriter(tmp);
+        this.docnos = DocnoLookup.of(reader);
+        this.runTag = runTag;
+    }
+
+    @Override
+    public void write(int qid, ScoreDoc[] hits) throws IOException {
+        String prefix = qid + " Q0 ";
+        for (int i = 0; i < hits.length; i++) {
+            bw.write(prefix);
+            bw.write(docnos.get(hits[i].doc));
+            bw.write(' ');
+            bw.write(Integer.toString(i + 1));
+            bw.write(' ');
+            bw.write(Float.toString(hits[i].score));
+            bw.write(' ');
+            bw.write(runTag);
+            bw.newLine();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        bw.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Drops the run without publishing it, e.g. after its search failed. */
+    public void abort() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            bw.close();
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
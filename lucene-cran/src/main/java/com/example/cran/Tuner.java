@@ -0,0 +1,236 @@
+package com.example.cran;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Successive-halving search over continuous (or integer) parameter ranges, as a cheaper
+ * alternative to evaluating a full grid on every query.
+ *
+ * A set of configurations is sampled uniformly from the ranges and all of them are scored
+ * (MAP, trec_eval rules) on a random subset of at least minQueries queries. The best 1/eta
+ * survive and are scored on an eta times larger subset, and so on until the survivors are
+ * scored on every query. Subsets are prefixes of one shuffled query order, so a survivor only
+ * runs the queries it has not run yet.
+ */
+public final class Tuner {
+    /** A tunable parameter, sampled uniformly from [min, max]. */
+    public static final class Param {
+        public final String name;
+        public final double min;
+        public final double max;
+        public final boolean integer;
+
+        private Param(String name, double min, double max, boolean integer) {
+            if (!(min <= max)) throw new IllegalArgumentException(name + ": empty range [" + min + ", " + max + "]");
+            this.name = name;
+            this.min = min;
+            this.max = max;
+            this.integer = integer;
+        }
+
+        public static Param real(String name, double min, double max) {
+            return new Param(name, min, max, false);
+        }
+
+        public static Param integer(String name, int min, int max) {
+            return new Param(name, min, max, true);
+        }
+
+        double sample(Random random) {
+            if (integer) return (long) min + random.nextInt((int) (max - min) + 1);
+            return min + random.nextDouble() * (max - min);
+        }
+    }
+
+    /** Ranks queries under one configuration; called from one thread at a time. */
+    @FunctionalInterface
+    public interface Ranker {
+        ScoreDoc[] rank(int qid) throws Exception;
+    }
+
+    /** Sets up the searcher for one configuration, its values in parameter order. */
+    @FunctionalInterface
+    public interface Objective {
+        Ranker configure(double[] values) throws Exception;
+    }
+
+    /** The winning configuration and what it cost to find. */
+    public static final class Result {
+        public final List<Param> space;
+        public final double[] best;
+        public final double map;
+        public final int configs;
+        /** Queries run over all configurations and rounds. */
+        public final long evaluations;
+        /** Queries a single round over every sampled configuration would run. */
+        public final long exhaustiveEvaluations;
+
+        Result(List<Param> space, double[] best, double map, int configs, long evaluations, long exhaustiveEvaluations) {
+            this.space = space;
+            this.best = best;
+            this.map = map;
+            this.configs = configs;
+            this.evaluations = evaluations;
+            this.exhaustiveEvaluations = exhaustiveEvaluations;
+        }
+
+        public float get(String name) {
+            for (int i = 0; i < space.size(); i++) {
+                if (space.get(i).name.equals(name)) return (float) best[i];
+            }
+            throw new IllegalArgumentException("no parameter " + name);
+        }
+
+        /** e.g. "k1=1.3512 b=0.6874". */
+        public String describe() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < space.size(); i++) {
+                if (i > 0) sb.append(' ');
+                Param p = space.get(i);
+                sb.append(p.name).append('=');
+                sb.append(p.integer ? Long.toString((long) best[i]) : String.format(Locale.ROOT, "%.4f", best[i]));
+            }
+            return sb.toString();
+        }
+    }
+
+    private final TrecEvaluator evaluator;
+    private final DocnoLookup docnos;
+    private final List<Integer> order;
+    private final int configs;
+    private final int eta;
+    private final int minQueries;
+    private final long seed;
+    private final int threads;
+
+    /**
+     * @param reader the index the objectives search, for docno lookup
+     * @param configs configurations sampled per tuning run, e.g. 27
+     * @param eta the fraction 1/eta survives each round, and the query subset grows eta-fold
+     * @param minQueries smallest subset a configuration is judged on; fewer make the first rounds noisy
+     */
+    public Tuner(TrecEvaluator evaluator, IndexReader reader, String queriesFile, int configs, int eta, int minQueries,
+                 long seed, int threads) throws IOException {
+        if (configs < 1 || eta < 2) throw new IllegalArgumentException("need configs >= 1 and eta >= 2");
+        this.evaluator = evaluator;
+        this.docnos = DocnoLookup.of(reader);
+        this.configs = configs;
+        this.eta = eta;
+        this.minQueries = Math.max(1, minQueries);
+        this.seed = seed;
+        this.threads = Math.max(1, threads);
+
+        List<Integer> qids = new ArrayList<>();
+        QuerySource.load(queriesFile).texts().forEach((qid, text) -> {
+            if (text != null && !text.isEmpty()) qids.add(qid);
+        });
+        Collections.shuffle(qids, new Random(seed));
+        this.order = Collections.unmodifiableList(qids);
+    }
+
+    /** -Dcran.tuneConfigs (default 27), -Dcran.tuneEta (3), -Dcran.tuneMinQueries (25) and -Dcran.tuneSeed (42). */
+    public static Tuner fromSystemProperties(TrecEvaluator evaluator, IndexReader reader, String queriesFile, int threads)
+            throws IOException {
+        return new Tuner(evaluator, reader, queriesFile, Integer.getInteger("cran.tuneConfigs", 27),
+                Integer.getInteger("cran.tuneEta", 3), Integer.getInteger("cran.tuneMinQueries", 25),
+                Long.getLong("cran.tuneSeed", 42L), threads);
+    }
+
+    public Result tune(String name, List<Param> space, Objective objective) throws Exception {
+        long start = System.nanoTime();
+        Random random = new Random(seed ^ name.hashCode());
+        List<Candidate> alive = new ArrayList<>();
+        for (int i = 0; i < configs; i++) {
+            double[] values = new double[space.size()];
+            for (int p = 0; p < values.length; p++) values[p] = space.get(p).sample(random);
+            alive.add(new Candidate(values));
+        }
+
+        // as many halvings as the configs allow while the first subset keeps minQueries queries;
+        // round r scores on |queries| / eta^(rounds - r) queries
+        int rounds = 0;
+        for (long n = eta; n <= configs && (long) minQueries * n <= order.size(); n *= eta) rounds++;
+        long evaluations = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round <= rounds; round++) {
+                int budget = (int) Math.ceil(order.size() / Math.pow(eta, rounds - round));
+                List<Future<Integer>> pending = new ArrayList<>();
+                for (Candidate c : alive) pending.add(pool.submit(() -> c.evaluateUpTo(budget, objective)));
+                for (Future<Integer> f : pending) evaluations += get(f);
+
+                alive.sort(Comparator.comparingDouble(Candidate::map).reversed());
+                System.out.printf(Locale.ROOT, "  %s round %d: %d configs on %d queries, best map %.4f%n",
+                        name, round, alive.size(), budget, alive.get(0).map());
+                if (round < rounds) alive = new ArrayList<>(alive.subList(0, Math.max(1, alive.size() / eta)));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Candidate best = alive.get(0);
+        Result result = new Result(space, best.values, best.map(), configs, evaluations, (long) configs * order.size());
+        System.out.printf(Locale.ROOT, "Tuned %s in %.1f s: %s, map %.4f (%d of %d query evaluations)%n",
+                name, (System.nanoTime() - start) / 1e9, result.describe(), result.map, evaluations, result.exhaustiveEvaluations);
+        return result;
+    }
+
+    private static int get(Future<Integer> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    // one sampled configuration and the average precision of the queries it has run
+    private final class Candidate {
+        final double[] values;
+        Ranker ranker;
+        int evaluated; // prefix of the query order already run
+        int judged;    // of those, queries trec_eval would average (hits and qrels)
+        double sumAp;
+
+        Candidate(double[] values) {
+            this.values = values;
+        }
+
+        double map() {
+            return judged == 0 ? 0.0 : sumAp / judged;
+        }
+
+        // runs the queries up to the budget that this configuration hasn't run yet
+        int evaluateUpTo(int budget, Objective objective) throws Exception {
+            if (ranker == null) ranker = objective.configure(values);
+            int ran = 0;
+            for (; evaluated < budget; evaluated++, ran++) {
+                int qid = order.get(evaluated);
+                ScoreDoc[] hits = ranker.rank(qid);
+                String[] ids = new String[hits.length];
+                float[] scores = new float[hits.length];
+                for (int i = 0; i < hits.length; i++) {
+                    ids[i] = docnos.get(hits[i].doc);
+                    scores[i] = hits[i].score;
+                }
+                double[] m = evaluator.evaluateQuery(qid, ids, scores);
+                if (m == null) continue;
+                sumAp += m[0];
+                judged++;
+            }
+            return ran;
+        }
+    }
+}